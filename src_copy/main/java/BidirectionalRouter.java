@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+/**
+ * Bidirectional A* over a RoadGraph, searching forward from the source and backward from the
+ * target until the two searches meet.
+ * <p>
+ *     The two searches cover two small balls instead of one large one, which only pays off
+ *     when the heuristic is weak: with no heuristic, routes on the test grids settle about 30%
+ *     fewer nodes than Router. With the euclidean heuristic or Landmarks, both directions
+ *     settle about as many nodes as Router, sometimes a few percent more, since the average
+ *     potential is looser than either one-sided heuristic.
+ * </p>
+ * <p>
+ *     Both searches use the average potential: the forward key of a node is its distance
+ *     from the source plus half the difference between its heuristic to the target and its
+ *     heuristic to the source, and the backward key uses the negated potential. These
+ *     potentials are consistent and cancel out along any route, so the search can stop as
+ *     soon as the two smallest keys sum to at least the shortest route found.
+ * </p>
+ * Several sources and targets are searched at once as if from a virtual node joined to the
+ * sources to one joined to the targets, with heuristics taken to the nearest of them past
+ * their offsets. The searches take turns in the calling thread, whichever has the smaller
+ * key going next. Workspaces are kept per thread and reused as in Router.
+ */
+public class BidirectionalRouter implements RouteEngine {
+
+    /** Offset of a single source or target. */
+    private static final double[] ZERO = {0};
+
+    /** Graph searched. */
+    private final RoadGraph graph;
+    /** Lower bound on the distance between two nodes. */
+    private final Heuristic heuristic;
+    /** Workspace of each thread. */
+    private final ThreadLocal<Workspace> workspaces;
+
+    /** BidirectionalRouter constructor for GRAPH guided by HEURISTIC. */
+    public BidirectionalRouter(RoadGraph graph, Heuristic heuristic) {
+        this.graph = graph;
+        this.heuristic = heuristic;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(graph.size()));
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        Workspace w = workspaces.get();
+        w.source[0] = source;
+        w.target[0] = target;
+        return search(w, w.source, ZERO, w.target, ZERO);
+    }
+
+    @Override
+    public RouteResult route(int[] sources, double[] sourceOffsets, int[] targets,
+                             double[] targetOffsets) {
+        return search(workspaces.get(), sources, sourceOffsets, targets, targetOffsets);
+    }
+
+    /**
+     * Returns the shortest route from any of SOURCES, reached after SOURCEOFFSETS, to any of
+     * TARGETS, left after TARGETOFFSETS, searching with workspace W.
+     */
+    private RouteResult search(Workspace w, int[] sources, double[] sourceOffsets,
+                               int[] targets, double[] targetOffsets) {
+        if (!graph.connected(sources, targets)) {
+            return RouteResult.none(0);
+        }
+        int generation = w.begin();
+        w.sources = sources;
+        w.sourceOffsets = sourceOffsets;
+        w.targets = targets;
+        w.targetOffsets = targetOffsets;
+        Search forward = w.forward, backward = w.backward;
+        for (int i = 0; i < sources.length; i++) {
+            int source = sources[i];
+            if (forward.reached[source] != generation || sourceOffsets[i] < forward.dist[source]) {
+                forward.reach(source, sourceOffsets[i], -1, generation);
+                forward.heap.insertOrDecrease(source, sourceOffsets[i] + potential(w, source));
+            }
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        for (int j = 0; j < targets.length; j++) {
+            int target = targets[j];
+            if (backward.reached[target] != generation
+                    || targetOffsets[j] < backward.dist[target]) {
+                backward.reach(target, targetOffsets[j], -1, generation);
+                backward.heap.insertOrDecrease(target, targetOffsets[j] - potential(w, target));
+                if (forward.reached[target] == generation
+                        && forward.dist[target] + targetOffsets[j] < best) {
+                    best = forward.dist[target] + targetOffsets[j];
+                    meet = target;
+                }
+            }
+        }
+
+        int settled = 0;
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()
+                && forward.heap.minKey() + backward.heap.minKey() < best) {
+            boolean isForward = forward.heap.minKey() <= backward.heap.minKey();
+            Search search = isForward ? forward : backward;
+            Search other = isForward ? backward : forward;
+            double sign = isForward ? 1 : -1;
+
+            int node = search.heap.poll();
+            search.settled[node] = generation;
+            settled += 1;
+            double nodeDist = search.dist[node];
+            for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                int next = graph.target(e);
+                if (search.settled[next] == generation) {
+                    continue;
+                }
+                double dist = nodeDist + graph.weight(e);
+                if (search.reached[next] != generation || dist < search.dist[next]) {
+                    search.reach(next, dist, node, generation);
+                    search.heap.insertOrDecrease(next, dist + sign * potential(w, next));
+                    if (other.reached[next] == generation && dist + other.dist[next] < best) {
+                        best = dist + other.dist[next];
+                        meet = next;
+                    }
+                }
+            }
+        }
+        if (meet < 0) {
+            return RouteResult.none(settled);
+        }
+        return new RouteResult(w.path(meet), best, settled);
+    }
+
+    /**
+     * Returns the forward potential of NODE for the query of W, computing it once per query:
+     * half the difference between its bounds to the targets and from the sources.
+     */
+    private double potential(Workspace w, int node) {
+        if (w.potentialStamp[node] != w.generation) {
+            w.potential[node] = (bound(node, w.targets, w.targetOffsets)
+                    - bound(node, w.sources, w.sourceOffsets)) / 2;
+            w.potentialStamp[node] = w.generation;
+        }
+        return w.potential[node];
+    }
+
+    /** Returns a lower bound on the distance between NODE and ENDS past their OFFSETS. */
+    private double bound(int node, int[] ends, double[] offsets) {
+        double bound = heuristic.estimate(node, ends[0]) + offsets[0];
+        for (int i = 1; i < ends.length; i++) {
+            bound = Math.min(bound, heuristic.estimate(node, ends[i]) + offsets[i]);
+        }
+        return bound;
+    }
+
+    /** State of one direction of a query. */
+    private static class Search {
+
+        /** Best known distance and previous node of each reached node. */
+        private final double[] dist;
+        private final int[] parent;
+        /** Generation in which each node was last reached and last settled. */
+        private final int[] reached, settled;
+        /** Queue of reached but unsettled nodes. */
+        private final IndexedMinHeap heap;
+
+        /** Search constructor for a graph of SIZE nodes. */
+        Search(int size) {
+            dist = new double[size];
+            parent = new int[size];
+            reached = new int[size];
+            settled = new int[size];
+            heap = new IndexedMinHeap(size);
+        }
+
+        /** Records that NODE was reached at DISTANCE from PREVIOUS in GENERATION. */
+        void reach(int node, double distance, int previous, int generation) {
+            dist[node] = distance;
+            parent[node] = previous;
+            reached[node] = generation;
+        }
+
+        /** Forgets every generation stamp. */
+        void reset() {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+        }
+    }
+
+    /** Query state of one thread, reused across queries. */
+    private static class Workspace {
+
+        /** Searches from the source and from the target. */
+        private final Search forward, backward;
+        /** Forward potential of each node, valid when its stamp is the current generation. */
+        private final double[] potential;
+        private final int[] potentialStamp;
+        /** Holders of a single source and target. */
+        private final int[] source = new int[1], target = new int[1];
+        /** Sources and targets of the current query, with their offsets. */
+        private int[] sources, targets;
+        private double[] sourceOffsets, targetOffsets;
+        /** Generation of the current query. */
+        private int generation;
+
+        /** Workspace constructor for a graph of SIZE nodes. */
+        Workspace(int size) {
+            forward = new Search(size);
+            backward = new Search(size);
+            potential = new double[size];
+            potentialStamp = new int[size];
+        }
+
+        /** Starts a query and returns its generation. */
+        int begin() {
+            forward.heap.clear();
+            backward.heap.clear();
+            generation += 1;
+            if (generation == Integer.MAX_VALUE) {
+                forward.reset();
+                backward.reset();
+                Arrays.fill(potentialStamp, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+
+        /** Returns the nodes from the source through MEET to the target. */
+        int[] path(int meet) {
+            int forwardLength = 0, backwardLength = 0;
+            for (int node = meet; node >= 0; node = forward.parent[node]) {
+                forwardLength += 1;
+            }
+            for (int node = backward.parent[meet]; node >= 0; node = backward.parent[node]) {
+                backwardLength += 1;
+            }
+            int[] path = new int[forwardLength + backwardLength];
+            int i = forwardLength;
+            for (int node = meet; node >= 0; node = forward.parent[node]) {
+                path[--i] = node;
+            }
+            i = forwardLength;
+            for (int node = backward.parent[meet]; node >= 0; node = backward.parent[node]) {
+                path[i++] = node;
+            }
+            return path;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe least recently used cache bounded by the total weight of its values.
+ * Values are weighed once when inserted, and the least recently used entries are evicted
+ * until the total weight fits in the budget again. Loads through {@link #get(Object, Loader)}
+ * are single-flight: concurrent misses on the same key wait for one load instead of
+ * repeating it.
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class ConcurrentLruCache<K, V> {
+
+    /** Computes the weight of a cached value, typically its size in bytes. */
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    /** Computes the value of a key on a cache miss. */
+    public interface Loader<K, V> {
+        V load(K key) throws IOException;
+    }
+
+    /** Maximum total weight of all cached values. */
+    private final long maxWeight;
+    /** Weigher of values. */
+    private final Weigher<K, V> weigher;
+    /** Entries in access order, least recently used first. Guarded by this. */
+    private final LinkedHashMap<K, Entry<V>> entries;
+    /** Total weight of all entries. Guarded by this. */
+    private long weight;
+    /** Loads currently running, by key. */
+    private final ConcurrentHashMap<K, FutureTask<V>> loading;
+    /** Counters of lookups, loads and evictions. */
+    private final AtomicLong hits, misses, loads, evictions;
+
+    /** ConcurrentLruCache constructor holding at most MAXWEIGHT as measured by WEIGHER. */
+    public ConcurrentLruCache(long maxWeight, Weigher<K, V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.loading = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.loads = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /** ConcurrentLruCache constructor holding at most MAXENTRIES values. */
+    public ConcurrentLruCache(long maxEntries) {
+        this(maxEntries, (key, value) -> 1);
+    }
+
+    /** Returns the value cached for KEY, or null if there is none. */
+    public V getIfPresent(K key) {
+        V value = peek(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value cached for KEY, loading it with LOADER on a miss. If another thread
+     * is already loading KEY, waits for its result instead of loading it again.
+     */
+    public V get(K key, Loader<K, V> loader) throws IOException {
+        V value = peek(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        misses.incrementAndGet();
+
+        FutureTask<V> task = new FutureTask<>(() -> {
+            V cached = peek(key);
+            if (cached != null) {
+                return cached;
+            }
+            loads.incrementAndGet();
+            V loaded = loader.load(key);
+            if (loaded != null) {
+                put(key, loaded);
+            }
+            return loaded;
+        });
+        FutureTask<V> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+        return await(running);
+    }
+
+    /** Returns the result of TASK, rethrowing the IOException it failed with. */
+    private V await(FutureTask<V> task) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Caches VALUE for KEY, evicting least recently used entries if over budget. */
+    public void put(K key, V value) {
+        long valueWeight = weigher.weigh(key, value);
+        synchronized (this) {
+            Entry<V> old = entries.put(key, new Entry<>(value, valueWeight));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += valueWeight;
+            Iterator<Entry<V>> eldest = entries.values().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Removes the value cached for KEY. */
+    public synchronized void invalidate(K key) {
+        Entry<V> old = entries.remove(key);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    /** Removes every cached value. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Returns the value cached for KEY without counting a hit or miss. */
+    private synchronized V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /** Returns number of cached values. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Returns total weight of cached values. */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /** Returns number of lookups that found a cached value. */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /** Returns number of lookups that found no cached value. */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /** Returns number of values computed by a Loader. */
+    public long loadCount() {
+        return loads.get();
+    }
+
+    /** Returns number of values evicted to stay within budget. */
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    /** Returns a snapshot of the cache counters, keyed by name. */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount());
+        stats.put("misses", missCount());
+        stats.put("loads", loadCount());
+        stats.put("evictions", evictionCount());
+        synchronized (this) {
+            stats.put("entries", (long) entries.size());
+            stats.put("weight", weight);
+        }
+        stats.put("max_weight", maxWeight);
+        return stats;
+    }
+
+    /** Cached value with its weight. */
+    private static class Entry<V> {
+
+        /** Cached value. */
+        private final V value;
+        /** Weight of value when cached. */
+        private final long weight;
+
+        /** Entry constructor. */
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+}
@@ -0,0 +1,559 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Contraction Hierarchies over a RoadGraph, for routes that settle a few hundred nodes
+ * instead of a large part of the graph.
+ * <p>
+ *     Preprocessing contracts the nodes one by one, least important first by edge difference
+ *     plus contracted neighbours, kept up to date lazily. Contracting a node adds a shortcut
+ *     between two of its remaining neighbours unless a bounded witness search finds a path
+ *     between them that is no longer. The rank of a node is its position in that order.
+ * </p>
+ * <p>
+ *     Only upward edges, from a node to a neighbour of higher rank, are kept, each with the
+ *     node it bypasses if it is a shortcut. Roads are two way, so a query runs Dijkstra
+ *     upward from both ends over the same edges, stops once neither queue can beat the best
+ *     meeting point, and unpacks the shortcuts of the route.
+ * </p>
+ * The upward graph is saved with the fingerprint of the graph it was built for, so it can be
+ * loaded at startup instead of being rebuilt. Build one offline with the main method.
+ */
+public class ContractionHierarchy implements RouteEngine {
+
+    /** "BMCH" in ASCII. */
+    private static final int MAGIC = 0x424D4348;
+    private static final int VERSION = 1;
+    /** Bytes of the header: magic, version, fingerprint, node and edge counts. */
+    private static final int HEADER_BYTES = 24;
+    /** Most nodes a witness search settles before giving up and adding the shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+
+    /** Graph the hierarchy was built for. */
+    private final RoadGraph graph;
+    /** Contraction order of each node. */
+    private final int[] rank;
+    /** Upward edges in compressed sparse row form, as in RoadGraph. */
+    private final int[] offsets, targets;
+    /** Node each upward edge bypasses, -1 for a road of the graph. */
+    private final int[] middles;
+    /** Weight of each upward edge. */
+    private final double[] weights;
+    /** Query state of each thread. */
+    private final ThreadLocal<Workspace> workspaces;
+
+    /** ContractionHierarchy constructor. */
+    private ContractionHierarchy(RoadGraph graph, int[] rank, int[] offsets, int[] targets,
+                                 int[] middles, double[] weights) {
+        this.graph = graph;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.middles = middles;
+        this.weights = weights;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(graph.size()));
+    }
+
+    /** Returns number of upward edges, shortcuts included. */
+    public int upwardEdgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the hierarchy of GRAPH, contracting every node. */
+    public static ContractionHierarchy build(RoadGraph graph) {
+        return new Contractor(graph).contractAll();
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        if (!graph.connected(source, target)) {
+            return RouteResult.none(0);
+        }
+        Workspace w = workspaces.get();
+        int generation = w.begin();
+        if (source == target) {
+            return new RouteResult(new int[] {source}, 0, 0);
+        }
+        w.forward.reach(source, 0, -1, generation);
+        w.backward.reach(target, 0, -1, generation);
+        return search(w, generation);
+    }
+
+    @Override
+    public RouteResult route(int[] sources, double[] sourceOffsets, int[] targets,
+                             double[] targetOffsets) {
+        if (!graph.connected(sources, targets)) {
+            return RouteResult.none(0);
+        }
+        Workspace w = workspaces.get();
+        int generation = w.begin();
+        w.forward.seed(sources, sourceOffsets, generation);
+        w.backward.seed(targets, targetOffsets, generation);
+        return search(w, generation);
+    }
+
+    /** Runs the upward searches seeded in W for GENERATION and returns the route found. */
+    private RouteResult search(Workspace w, int generation) {
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        int settled = 0;
+        while (true) {
+            boolean forwardOpen = !w.forward.heap.isEmpty() && w.forward.heap.minKey() < best;
+            boolean backwardOpen = !w.backward.heap.isEmpty()
+                    && w.backward.heap.minKey() < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            boolean forward = forwardOpen
+                    && (!backwardOpen || w.forward.heap.minKey() <= w.backward.heap.minKey());
+            Search search = forward ? w.forward : w.backward;
+            Search other = forward ? w.backward : w.forward;
+
+            int node = search.heap.poll();
+            settled += 1;
+            double nodeDist = search.dist[node];
+            if (other.stamp[node] == generation && nodeDist + other.dist[node] < best) {
+                best = nodeDist + other.dist[node];
+                meet = node;
+            }
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int next = targets[e];
+                double dist = nodeDist + weights[e];
+                if (search.stamp[next] != generation || dist < search.dist[next]) {
+                    search.reach(next, dist, node, generation);
+                }
+            }
+        }
+        if (meet < 0) {
+            return RouteResult.none(settled);
+        }
+        return new RouteResult(w.unpack(this, meet), best, settled);
+    }
+
+    /** Returns the node bypassed by the upward edge between A and B, -1 if it is a road. */
+    private int middle(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        for (int e = offsets[low]; e < offsets[low + 1]; e++) {
+            if (targets[e] == high) {
+                return middles[e];
+            }
+        }
+        throw new IllegalStateException("No upward edge between " + a + " and " + b);
+    }
+
+    /** Returns a hash of the nodes, edges and weights of GRAPH. */
+    static long fingerprint(RoadGraph graph) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < graph.size(); i++) {
+            hash = 31 * hash + graph.id(i);
+            for (int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+                hash = 31 * hash + graph.target(e);
+                hash = 31 * hash + Float.floatToIntBits(graph.weight(e));
+            }
+        }
+        return hash;
+    }
+
+    /** Saves the upward graph to FILE. */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint(graph));
+            out.writeInt(rank.length);
+            out.writeInt(targets.length);
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int e = 0; e < targets.length; e++) {
+                out.writeInt(targets[e]);
+                out.writeInt(middles[e]);
+                out.writeDouble(weights[e]);
+            }
+        }
+    }
+
+    /** Loads the hierarchy of GRAPH saved in FILE, failing if it was built for another graph. */
+    public static ContractionHierarchy load(RoadGraph graph, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " hierarchy: " + file);
+            }
+            if (buffer.getLong() != fingerprint(graph) || buffer.getInt() != graph.size()) {
+                throw new IOException("Hierarchy " + file + " was built for another graph");
+            }
+            int n = graph.size();
+            int m = buffer.getInt();
+            if (buffer.remaining() != 4L * (2 * n + 1) + 16L * m) {
+                throw new IOException("Truncated hierarchy: " + file);
+            }
+            int[] rank = new int[n];
+            int[] offsets = new int[n + 1];
+            buffer.asIntBuffer().get(rank);
+            buffer.position(buffer.position() + 4 * n);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + 4 * (n + 1));
+            int[] targets = new int[m], middles = new int[m];
+            double[] weights = new double[m];
+            for (int e = 0; e < m; e++) {
+                targets[e] = buffer.getInt();
+                middles[e] = buffer.getInt();
+                weights[e] = buffer.getDouble();
+            }
+            return new ContractionHierarchy(graph, rank, offsets, targets, middles, weights);
+        }
+    }
+
+    /** Dijkstra state of one direction of a query. */
+    private static class Search {
+
+        /** Best known distance and previous node of each reached node. */
+        private final double[] dist;
+        private final int[] parent;
+        /** Generation in which each node was last reached. */
+        private final int[] stamp;
+        /** Queue of reached but unsettled nodes. */
+        private final IndexedMinHeap heap;
+
+        /** Search constructor for a graph of SIZE nodes. */
+        Search(int size) {
+            dist = new double[size];
+            parent = new int[size];
+            stamp = new int[size];
+            heap = new IndexedMinHeap(size);
+        }
+
+        /** Records that NODE was reached at DISTANCE from PREVIOUS in GENERATION. */
+        void reach(int node, double distance, int previous, int generation) {
+            dist[node] = distance;
+            parent[node] = previous;
+            stamp[node] = generation;
+            heap.insertOrDecrease(node, distance);
+        }
+
+        /** Reaches each of NODES at its OFFSETS, keeping the least offset of repeats. */
+        void seed(int[] nodes, double[] offsets, int generation) {
+            for (int i = 0; i < nodes.length; i++) {
+                if (stamp[nodes[i]] != generation || offsets[i] < dist[nodes[i]]) {
+                    reach(nodes[i], offsets[i], -1, generation);
+                }
+            }
+        }
+    }
+
+    /** Query state of one thread, reused across queries. */
+    private static class Workspace {
+
+        /** Searches from the source and from the target. */
+        private final Search forward, backward;
+        /** Scratch space for unpacking routes. */
+        private int[] path = new int[64], stack = new int[64];
+        /** Generation of the current query. */
+        private int generation;
+
+        /** Workspace constructor for a graph of SIZE nodes. */
+        Workspace(int size) {
+            forward = new Search(size);
+            backward = new Search(size);
+        }
+
+        /** Starts a query and returns its generation. */
+        int begin() {
+            forward.heap.clear();
+            backward.heap.clear();
+            generation += 1;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(forward.stamp, 0);
+                Arrays.fill(backward.stamp, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+
+        /** Returns the route of CH through MEET with every shortcut replaced by its roads. */
+        int[] unpack(ContractionHierarchy ch, int meet) {
+            int length = 0;
+            for (int node = meet; node >= 0; node = forward.parent[node]) {
+                path = grow(path, length);
+                path[length++] = node;
+            }
+            for (int i = 0, j = length - 1; i < j; i++, j--) {
+                int swap = path[i];
+                path[i] = path[j];
+                path[j] = swap;
+            }
+            /* Unpack in place from the end, copying the upward chain out first. */
+            int[] chain = Arrays.copyOf(path, length);
+            length = 1;
+            for (int i = 1; i < chain.length; i++) {
+                length = unpackEdge(ch, chain[i - 1], chain[i], length);
+            }
+            for (int node = meet; backward.parent[node] >= 0; node = backward.parent[node]) {
+                length = unpackEdge(ch, node, backward.parent[node], length);
+            }
+            return Arrays.copyOf(path, length);
+        }
+
+        /**
+         * Appends the roads of the edge from A to B, without A, to PATH after its first
+         * LENGTH nodes. Returns the new length.
+         */
+        private int unpackEdge(ContractionHierarchy ch, int a, int b, int length) {
+            int top = 0;
+            stack = grow(stack, top + 1);
+            stack[top++] = a;
+            stack[top++] = b;
+            while (top > 0) {
+                int to = stack[--top];
+                int from = stack[--top];
+                int middle = ch.middle(from, to);
+                if (middle < 0) {
+                    path = grow(path, length);
+                    path[length++] = to;
+                } else {
+                    stack = grow(stack, top + 3);
+                    stack[top++] = middle;
+                    stack[top++] = to;
+                    stack[top++] = from;
+                    stack[top++] = middle;
+                }
+            }
+            return length;
+        }
+
+        /** Returns ARRAY, or a copy twice as long if it has no index I. */
+        private static int[] grow(int[] array, int i) {
+            return i < array.length ? array : Arrays.copyOf(array, Math.max(2 * array.length,
+                    i + 1));
+        }
+    }
+
+    /**
+     * Contracts a RoadGraph, holding the remaining graph as growable adjacency lists.
+     * A contracted node is removed from the lists of its neighbours, so its own list is left
+     * holding exactly its upward edges.
+     */
+    private static class Contractor {
+
+        private final RoadGraph graph;
+        /** Neighbours, weights and bypassed nodes of the edges of each node. */
+        private final int[][] neighbors, bypassed;
+        private final double[][] lengths;
+        private final int[] degree;
+        /** How many neighbours of each node are contracted. */
+        private final int[] contractedNeighbors;
+        /** Witness search state; targets are stamped with the generation to find them. */
+        private final double[] witnessDist;
+        private final int[] witnessStamp, targetStamp;
+        private final IndexedMinHeap witnessHeap;
+        private int witnessGeneration;
+
+        /** Contractor constructor copying the edges of GRAPH. */
+        Contractor(RoadGraph graph) {
+            this.graph = graph;
+            int n = graph.size();
+            neighbors = new int[n][];
+            bypassed = new int[n][];
+            lengths = new double[n][];
+            degree = new int[n];
+            for (int i = 0; i < n; i++) {
+                int d = graph.endEdge(i) - graph.firstEdge(i);
+                neighbors[i] = new int[Math.max(4, d)];
+                bypassed[i] = new int[Math.max(4, d)];
+                lengths[i] = new double[Math.max(4, d)];
+                for (int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+                    neighbors[i][degree[i]] = graph.target(e);
+                    bypassed[i][degree[i]] = -1;
+                    lengths[i][degree[i]] = graph.weight(e);
+                    degree[i] += 1;
+                }
+            }
+            contractedNeighbors = new int[n];
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            targetStamp = new int[n];
+            witnessHeap = new IndexedMinHeap(n);
+        }
+
+        /** Contracts every node and returns the resulting hierarchy. */
+        ContractionHierarchy contractAll() {
+            int n = graph.size();
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                queue.insertOrDecrease(v, priority(v));
+            }
+            int[] rank = new int[n];
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                double priority = priority(v);
+                if (!queue.isEmpty() && priority > queue.minKey()) {
+                    queue.insertOrDecrease(v, priority);
+                    continue;
+                }
+                contract(v, true);
+                rank[v] = order++;
+                for (int i = 0; i < degree[v]; i++) {
+                    removeEdge(neighbors[v][i], v);
+                    contractedNeighbors[neighbors[v][i]] += 1;
+                }
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + degree[v];
+            }
+            int[] targets = new int[offsets[n]], middles = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(neighbors[v], 0, targets, offsets[v], degree[v]);
+                System.arraycopy(bypassed[v], 0, middles, offsets[v], degree[v]);
+                System.arraycopy(lengths[v], 0, weights, offsets[v], degree[v]);
+            }
+            return new ContractionHierarchy(graph, rank, offsets, targets, middles, weights);
+        }
+
+        /** Returns the priority of contracting V next; lower goes first. */
+        private double priority(int v) {
+            return contract(v, false) - degree[v] + contractedNeighbors[v];
+        }
+
+        /**
+         * Returns number of shortcuts contracting V needs, adding them if APPLY.
+         * Each pair of neighbours is checked once.
+         */
+        private int contract(int v, boolean apply) {
+            int shortcuts = 0;
+            for (int i = 0; i + 1 < degree[v]; i++) {
+                int u = neighbors[v][i];
+                double maxVia = 0;
+                for (int j = i + 1; j < degree[v]; j++) {
+                    maxVia = Math.max(maxVia, lengths[v][i] + lengths[v][j]);
+                }
+                witnessSearch(u, v, i + 1, maxVia);
+                for (int j = i + 1; j < degree[v]; j++) {
+                    int w = neighbors[v][j];
+                    double via = lengths[v][i] + lengths[v][j];
+                    if (witnessStamp[w] == witnessGeneration && witnessDist[w] <= via) {
+                        continue;
+                    }
+                    shortcuts += 1;
+                    if (apply) {
+                        addEdge(u, w, via, v);
+                        addEdge(w, u, via, v);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Runs a Dijkstra from SOURCE over the remaining graph without node V, until it
+         * settles the neighbours of V from index FIRSTTARGET on, passes distance MAXDIST or
+         * settles WITNESS_SETTLE_LIMIT nodes.
+         */
+        private void witnessSearch(int source, int v, int firstTarget, double maxDist) {
+            witnessGeneration += 1;
+            witnessHeap.clear();
+            for (int j = firstTarget; j < degree[v]; j++) {
+                targetStamp[neighbors[v][j]] = witnessGeneration;
+            }
+            int targets = degree[v] - firstTarget;
+            witnessDist[source] = 0;
+            witnessStamp[source] = witnessGeneration;
+            witnessHeap.insertOrDecrease(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled < WITNESS_SETTLE_LIMIT
+                    && witnessHeap.minKey() <= maxDist && targets > 0) {
+                int x = witnessHeap.poll();
+                settled += 1;
+                if (targetStamp[x] == witnessGeneration) {
+                    targets -= 1;
+                }
+                for (int i = 0; i < degree[x]; i++) {
+                    int y = neighbors[x][i];
+                    if (y == v) {
+                        continue;
+                    }
+                    double dist = witnessDist[x] + lengths[x][i];
+                    if (witnessStamp[y] != witnessGeneration || dist < witnessDist[y]) {
+                        witnessDist[y] = dist;
+                        witnessStamp[y] = witnessGeneration;
+                        witnessHeap.insertOrDecrease(y, dist);
+                    }
+                }
+            }
+        }
+
+        /** Adds an edge from U to W of LENGTH bypassing MIDDLE, or shortens an existing one. */
+        private void addEdge(int u, int w, double length, int middle) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == w) {
+                    if (length < lengths[u][i]) {
+                        lengths[u][i] = length;
+                        bypassed[u][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == neighbors[u].length) {
+                int capacity = 2 * degree[u];
+                neighbors[u] = Arrays.copyOf(neighbors[u], capacity);
+                bypassed[u] = Arrays.copyOf(bypassed[u], capacity);
+                lengths[u] = Arrays.copyOf(lengths[u], capacity);
+            }
+            neighbors[u][degree[u]] = w;
+            bypassed[u][degree[u]] = middle;
+            lengths[u][degree[u]] = length;
+            degree[u] += 1;
+        }
+
+        /** Removes the edge from U to W, moving the last edge of U into its place. */
+        private void removeEdge(int u, int w) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == w) {
+                    degree[u] -= 1;
+                    neighbors[u][i] = neighbors[u][degree[u]];
+                    bypassed[u][i] = bypassed[u][degree[u]];
+                    lengths[u][i] = lengths[u][degree[u]];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds and saves the hierarchy of an OSM file, given the same minimum component size and
+     * weights as the server: ContractionHierarchy [osmFile] [chFile] [minComponentSize] [metres]
+     */
+    public static void main(String[] args) throws IOException {
+        String osm = args.length > 0 ? args[0] : "berkeley.osm";
+        File output = new File(args.length > 1 ? args[1] : "berkeley.ch");
+        int minComponentSize = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        boolean metres = args.length > 3 && Boolean.parseBoolean(args[3]);
+        RoadGraph graph = new GraphDB(osm, minComponentSize, metres).getGraph();
+        long start = System.nanoTime();
+        ContractionHierarchy ch = build(graph);
+        ch.save(output);
+        System.out.printf("Contracted %d nodes into %d upward edges in %.1f s, saved to %s%n",
+                graph.size(), ch.upwardEdgeCount(), (System.nanoTime() - start) / 1e9, output);
+    }
+
+}
@@ -0,0 +1,319 @@
+import java.util.Arrays;
+
+/**
+ * Immutable R-tree over the road segments of a RoadGraph, for snapping a point to the
+ * nearest point on any road rather than to the nearest node.
+ * <p>
+ *     The tree is packed bottom up with Sort-Tile-Recursive: the entries of each level are
+ *     sorted by the x of their centres into vertical slices, each slice is sorted by y, and
+ *     runs of NODE_CAPACITY entries become the nodes of the level above. Nodes are stored in
+ *     flat arrays of bounding boxes and child ranges, leaves first and the root last.
+ * </p>
+ * Queries are a depth first branch and bound, nearest child first, that only allocate a
+ * small stack and the result, so one tree is shared by every thread.
+ */
+public class EdgeRTree {
+
+    /** Most children of a tree node. */
+    private static final int NODE_CAPACITY = 16;
+
+    /** Graph whose segments are indexed. */
+    private final RoadGraph graph;
+    /** Start node and graph edge of each segment, in leaf order. */
+    private final int[] froms, edges;
+    /** Bounding box of each tree node. */
+    private final double[] minX, minY, maxX, maxY;
+    /** Range of children of each tree node: segments for leaves, tree nodes otherwise. */
+    private final int[] firstChild, endChild;
+    /** Number of leaves, which are the first tree nodes. */
+    private final int leafCount;
+    /** Number of levels of tree nodes. */
+    private final int height;
+
+    /** EdgeRTree constructor. */
+    private EdgeRTree(RoadGraph graph, int[] froms, int[] edges, double[][] boxes,
+                      int[][] children, int leafCount, int height) {
+        this.graph = graph;
+        this.froms = froms;
+        this.edges = edges;
+        this.minX = boxes[0];
+        this.minY = boxes[1];
+        this.maxX = boxes[2];
+        this.maxY = boxes[3];
+        this.firstChild = children[0];
+        this.endChild = children[1];
+        this.leafCount = leafCount;
+        this.height = height;
+    }
+
+    /** Returns the tree of the segments of GRAPH, each two way road once. */
+    public static EdgeRTree build(RoadGraph graph) {
+        int count = 0;
+        for (int u = 0; u < graph.size(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                count += u < graph.target(e) ? 1 : 0;
+            }
+        }
+        int[] froms = new int[count], edges = new int[count];
+        double[] cx = new double[count], cy = new double[count];
+        count = 0;
+        for (int u = 0; u < graph.size(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                if (u < v) {
+                    froms[count] = u;
+                    edges[count] = e;
+                    cx[count] = (graph.lon(u) + graph.lon(v)) / 2;
+                    cy[count] = (graph.lat(u) + graph.lat(v)) / 2;
+                    count += 1;
+                }
+            }
+        }
+        int[] order = strOrder(cx, cy, count);
+        froms = permute(froms, order, 0);
+        edges = permute(edges, order, 0);
+
+        /* Leaves over runs of segments, then levels over runs of nodes, up to the root. */
+        int levelSize = Math.max(1, (count + NODE_CAPACITY - 1) / NODE_CAPACITY);
+        int total = levelSize;
+        while (levelSize > 1) {
+            levelSize = (levelSize + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            total += levelSize;
+        }
+        double[][] boxes = new double[4][total];
+        int[][] children = new int[2][total];
+        int nodes = 0;
+        for (int i = 0; i < count || nodes == 0; i += NODE_CAPACITY) {
+            children[0][nodes] = i;
+            children[1][nodes] = Math.min(count, i + NODE_CAPACITY);
+            setBox(boxes, nodes, graph, froms, edges, i, children[1][nodes]);
+            nodes += 1;
+        }
+        int leafCount = nodes;
+        int height = 1;
+        int levelStart = 0;
+        while (nodes - levelStart > 1) {
+            int levelEnd = nodes;
+            for (int i = levelStart; i < levelEnd; i++) {
+                cx[i - levelStart] = (boxes[0][i] + boxes[2][i]) / 2;
+                cy[i - levelStart] = (boxes[1][i] + boxes[3][i]) / 2;
+            }
+            order = strOrder(cx, cy, levelEnd - levelStart);
+            for (int k = 0; k < 4; k++) {
+                boxes[k] = permute(boxes[k], order, levelStart);
+            }
+            for (int k = 0; k < 2; k++) {
+                children[k] = permute(children[k], order, levelStart);
+            }
+            for (int i = levelStart; i < levelEnd; i += NODE_CAPACITY) {
+                int end = Math.min(levelEnd, i + NODE_CAPACITY);
+                children[0][nodes] = i;
+                children[1][nodes] = end;
+                boxes[0][nodes] = Double.POSITIVE_INFINITY;
+                boxes[1][nodes] = Double.POSITIVE_INFINITY;
+                boxes[2][nodes] = Double.NEGATIVE_INFINITY;
+                boxes[3][nodes] = Double.NEGATIVE_INFINITY;
+                for (int c = i; c < end; c++) {
+                    boxes[0][nodes] = Math.min(boxes[0][nodes], boxes[0][c]);
+                    boxes[1][nodes] = Math.min(boxes[1][nodes], boxes[1][c]);
+                    boxes[2][nodes] = Math.max(boxes[2][nodes], boxes[2][c]);
+                    boxes[3][nodes] = Math.max(boxes[3][nodes], boxes[3][c]);
+                }
+                nodes += 1;
+            }
+            levelStart = levelEnd;
+            height += 1;
+        }
+        return new EdgeRTree(graph, froms, edges, boxes, children, leafCount, height);
+    }
+
+    /** Sets box NODE of BOXES to the bounding box of segments FIRST up to END. */
+    private static void setBox(double[][] boxes, int node, RoadGraph graph, int[] froms,
+                               int[] edges, int first, int end) {
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int s = first; s < end; s++) {
+            int u = froms[s], v = graph.target(edges[s]);
+            x0 = Math.min(x0, Math.min(graph.lon(u), graph.lon(v)));
+            y0 = Math.min(y0, Math.min(graph.lat(u), graph.lat(v)));
+            x1 = Math.max(x1, Math.max(graph.lon(u), graph.lon(v)));
+            y1 = Math.max(y1, Math.max(graph.lat(u), graph.lat(v)));
+        }
+        boxes[0][node] = x0;
+        boxes[1][node] = y0;
+        boxes[2][node] = x1;
+        boxes[3][node] = y1;
+    }
+
+    /** Returns the Sort-Tile-Recursive order of the first COUNT entries centred at (CX, CY). */
+    private static int[] strOrder(double[] cx, double[] cy, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(cx[a], cx[b]));
+        int nodes = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(nodes));
+        int sliceSize = slices * NODE_CAPACITY;
+        for (int i = 0; i < count; i += sliceSize) {
+            Arrays.sort(order, i, Math.min(count, i + sliceSize),
+                    (a, b) -> Double.compare(cy[a], cy[b]));
+        }
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /** Returns ARRAY with the entries from FIRST on reordered by ORDER. */
+    private static int[] permute(int[] array, int[] order, int first) {
+        int[] result = array.clone();
+        for (int i = 0; i < order.length; i++) {
+            result[first + i] = array[first + order[i]];
+        }
+        return result;
+    }
+
+    /** Returns ARRAY with the entries from FIRST on reordered by ORDER. */
+    private static double[] permute(double[] array, int[] order, int first) {
+        double[] result = array.clone();
+        for (int i = 0; i < order.length; i++) {
+            result[first + i] = array[first + order[i]];
+        }
+        return result;
+    }
+
+    /** Returns number of segments indexed. */
+    public int size() {
+        return froms.length;
+    }
+
+    /** Returns the point on a road nearest (LON, LAT), or null if there are no roads. */
+    public Snap nearest(double lon, double lat) {
+        if (froms.length == 0) {
+            return null;
+        }
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        double[] stackDistances = new double[stack.length];
+        int top = 0;
+        stack[top++] = minX.length - 1;
+        double best = Double.POSITIVE_INFINITY;
+        int bestSegment = -1;
+        while (top > 0) {
+            top -= 1;
+            int node = stack[top];
+            if (stackDistances[top] > best) {
+                continue;
+            }
+            if (node < leafCount) {
+                for (int s = firstChild[node]; s < endChild[node]; s++) {
+                    double d = segmentDistance(s, lon, lat);
+                    if (d < best || d == best && s < bestSegment) {
+                        best = d;
+                        bestSegment = s;
+                    }
+                }
+            } else {
+                /* Push the children farthest first, so the nearest is searched first. */
+                int pushed = top;
+                for (int c = firstChild[node]; c < endChild[node]; c++) {
+                    double d = boxDistance(c, lon, lat);
+                    if (d > best) {
+                        continue;
+                    }
+                    int i = top++;
+                    while (i > pushed && stackDistances[i - 1] < d) {
+                        stack[i] = stack[i - 1];
+                        stackDistances[i] = stackDistances[i - 1];
+                        i -= 1;
+                    }
+                    stack[i] = c;
+                    stackDistances[i] = d;
+                }
+            }
+        }
+        int from = froms[bestSegment], edge = edges[bestSegment], to = graph.target(edge);
+        double fraction = fraction(from, to, lon, lat);
+        return new Snap(from, to, edge, fraction,
+                graph.lon(from) + fraction * (graph.lon(to) - graph.lon(from)),
+                graph.lat(from) + fraction * (graph.lat(to) - graph.lat(from)));
+    }
+
+    /** Returns the squared distance from (LON, LAT) to the box of tree node NODE. */
+    private double boxDistance(int node, double lon, double lat) {
+        double dx = Math.max(0, Math.max(minX[node] - lon, lon - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - lat, lat - maxY[node]));
+        return dx * dx + dy * dy;
+    }
+
+    /** Returns the squared distance from (LON, LAT) to segment S. */
+    private double segmentDistance(int s, double lon, double lat) {
+        int u = froms[s], v = graph.target(edges[s]);
+        return RoutePolyline.squaredSegmentDistance(lon, lat, graph.lon(u), graph.lat(u),
+                graph.lon(v), graph.lat(v));
+    }
+
+    /** Returns how far along the segment from node U to node V (LON, LAT) projects, 0 to 1. */
+    private double fraction(int u, int v, double lon, double lat) {
+        double dx = graph.lon(v) - graph.lon(u), dy = graph.lat(v) - graph.lat(u);
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double t = ((lon - graph.lon(u)) * dx + (lat - graph.lat(u)) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /** A point on a road segment, between two nodes of the graph. */
+    public static class Snap {
+
+        /** Nodes at the ends of the segment, and the graph edge from FROM to TO. */
+        private final int from, to, edge;
+        /** Position of the point along the segment, 0 at FROM and 1 at TO. */
+        private final double fraction;
+        /** Coordinates of the point. */
+        private final double lon, lat;
+
+        /** Snap constructor. */
+        Snap(int from, int to, int edge, double fraction, double lon, double lat) {
+            this.from = from;
+            this.to = to;
+            this.edge = edge;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+        }
+
+        /** Returns the node at the start of the segment. */
+        public int getFrom() {
+            return from;
+        }
+
+        /** Returns the node at the end of the segment. */
+        public int getTo() {
+            return to;
+        }
+
+        /** Returns the graph edge from the start to the end of the segment. */
+        public int getEdge() {
+            return edge;
+        }
+
+        /** Returns the position of the point along the segment, from 0 to 1. */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /** Returns longitude of the point. */
+        public double getLon() {
+            return lon;
+        }
+
+        /** Returns latitude of the point. */
+        public double getLat() {
+            return lat;
+        }
+    }
+
+}
@@ -17,8 +17,10 @@ import javax.xml.parsers.SAXParserFactory;
  */
 public class GraphDB {
 
-    /** List of all Connected Nodes represented in HashMap. */
-    private HashMap<Long, GraphNode> nodeList;
+    /** Road graph of all connected nodes. */
+    private RoadGraph graph;
+    /** Collects nodes and roads while parsing, null afterwards. */
+    private RoadGraph.Builder builder;
     /** List of Strings mapped to a List of Nodes with name associated. */
     private Hashtable<String, List<GraphNode>> stringNodes;
     /** Trie of locationNames. */
@@ -31,7 +33,15 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        nodeList = new HashMap<>();
+        this(dbPath, 1, false);
+    }
+
+    /**
+     * Parses the XML file at DBPATH, keeping only the road components of at least
+     * MINCOMPONENTSIZE nodes, with roads weighted in metres if METRES, else in degrees.
+     */
+    public GraphDB(String dbPath, int minComponentSize, boolean metres) {
+        builder = new RoadGraph.Builder(metres);
         stringNodes = new Hashtable<>();
         stringLocations = new Trie();
         cleanedStrings = new HashMap<>();
@@ -44,19 +54,24 @@ public class GraphDB {
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
-        clean();
+        graph = builder.build();
+        builder = null;
+        clean(minComponentSize);
     }
 
-    /** Add a Node to NodeList. */
-    public void addNode(Long id, GraphNode node) {
-        if (!nodeList.containsKey(id)) {
-            nodeList.put(id, node);
-        }
+    /** Add the node with OSM id ID at (LON, LAT). */
+    public void addNode(long id, double lon, double lat) {
+        builder.addNode(id, lon, lat);
+    }
+
+    /** Add a two way road between the nodes with OSM ids FROM and TO. */
+    public void addEdge(long from, long to) {
+        builder.addEdge(from, to);
     }
 
-    /** Get NodeMapList. */
-    public HashMap<Long, GraphNode> getNodeMap() {
-        return nodeList;
+    /** Returns the road graph. */
+    public RoadGraph getGraph() {
+        return graph;
     }
 
     /** Map word to Node. */
@@ -111,11 +126,13 @@ public class GraphDB {
     }
 
     /**
-     *  Remove nodes with no connections from the graph.
-     *  While this does not guarantee that any two nodes in the remaining graph are connected,
-     *  we can reasonably assume this since typically roads are connected.
+     *  Remove nodes with no connections from the graph, and the components of fewer than
+     *  MINCOMPONENTSIZE nodes. Nodes off every road are already left out by RoadGraph.Builder.
+     *  The remaining graph may still have several components; routes between them are
+     *  rejected by their component labels without searching.
      */
-    private void clean() {
+    private void clean(int minComponentSize) {
+        graph = graph.withoutComponentsSmallerThan(minComponentSize);
     }
 
 }
@@ -1,7 +1,7 @@
-import java.util.ArrayList;
-
 /**
  * Created by LuisAlba on 7/31/16.
+ * Named location of the map. Roads are kept in the RoadGraph, so GraphNodes only exist for
+ * nodes that have a name.
  */
 public class GraphNode {
 
@@ -9,8 +9,6 @@ public class GraphNode {
     private long id;
     /** Longitude and Latitude of current GraphNode. */
     private double longitude, latitude;
-    /** A List of current GraphNode's neighbors. */
-    private ArrayList<GraphNode> neighbors;
     /** Name of node. */
     private String name;
 
@@ -19,7 +17,6 @@ public class GraphNode {
         this.longitude = lon;
         this.latitude = lat;
         this.id = id;
-        neighbors = new ArrayList<>();
     }
 
     /** Returns Longitude of GraphNode. */
@@ -37,28 +34,6 @@ public class GraphNode {
         return id;
     }
 
-    /** Add a neighbor to current GraphNode. */
-    public void addNeighbor(GraphNode neigh) {
-        neighbors.add(neigh);
-    }
-
-    /** Returns List of all neighbors. */
-    public ArrayList<GraphNode> getNeighbors() {
-        return neighbors;
-    }
-
-    /** Returns distance to neighbor. */
-    public double distanceTo(GraphNode neighbor) {
-        return Math.sqrt(Math.pow(neighbor.getLongitude() - this.longitude, 2)
-                + Math.pow(neighbor.getLatitude() - this.latitude, 2));
-    }
-
-    /** Returns distance from this Node to certain (lon,lat). */
-    public double distanceTo(double lon, double lat) {
-        return Math.sqrt(Math.pow(lon - this.longitude, 2)
-                + Math.pow(lat - this.latitude, 2));
-    }
-
     /** Sets name. */
     public void setName(String name) {
         this.name = name;
@@ -0,0 +1,15 @@
+/**
+ * Lower bound on the road distance between two nodes of a RoadGraph, guiding A* searches.
+ * Bounds must never exceed the true distance and must be consistent: the bound from a node
+ * is at most the weight of an edge plus the bound from the other end.
+ */
+public interface Heuristic {
+
+    /** Returns a lower bound on the distance from NODE to TARGET. */
+    double estimate(int node, int target);
+
+    /** Returns the straight line distance heuristic of GRAPH, in the units of its weights. */
+    static Heuristic euclidean(RoadGraph graph) {
+        return (node, target) -> graph.distance(node, graph.lon(target), graph.lat(target));
+    }
+}
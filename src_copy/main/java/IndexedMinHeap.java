@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the ints 0 to capacity - 1 by double keys, with decrease-key.
+ * Each int is in the heap at most once; its position is tracked so its key can be lowered in
+ * place instead of pushing a duplicate. Allocates nothing after construction.
+ */
+public class IndexedMinHeap {
+
+    /** Items in heap order. */
+    private final int[] heap;
+    /** Position of each item in HEAP, -1 when it is not in the heap. */
+    private final int[] positions;
+    /** Key of each item, valid while it is in the heap. */
+    private final double[] keys;
+    /** Number of items in the heap. */
+    private int size;
+
+    /** IndexedMinHeap constructor for the items 0 to CAPACITY - 1. */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        positions = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /** Returns whether the heap is empty. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns number of items in the heap. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns whether ITEM is in the heap. */
+    public boolean contains(int item) {
+        return positions[item] >= 0;
+    }
+
+    /** Returns the smallest key, which must exist. */
+    public double minKey() {
+        return keys[heap[0]];
+    }
+
+    /** Adds ITEM with KEY, or lowers its key to KEY if it is in the heap with a larger one. */
+    public void insertOrDecrease(int item, double key) {
+        int i = positions[item];
+        if (i < 0) {
+            i = size++;
+            heap[i] = item;
+            positions[item] = i;
+        } else if (key >= keys[item]) {
+            return;
+        }
+        keys[item] = key;
+        siftUp(i);
+    }
+
+    /** Removes and returns the item with the smallest key, which must exist. */
+    public int poll() {
+        int min = heap[0];
+        positions[min] = -1;
+        size -= 1;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            positions[last] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /** Removes every item, in time proportional to the number of items. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /** Moves the item at position I up to its place. */
+    private void siftUp(int i) {
+        int item = heap[i];
+        double key = keys[item];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int parentItem = heap[parent];
+            if (keys[parentItem] <= key) {
+                break;
+            }
+            heap[i] = parentItem;
+            positions[parentItem] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        positions[item] = i;
+    }
+
+    /** Moves the item at position I down to its place. */
+    private void siftDown(int i) {
+        int item = heap[i];
+        double key = keys[item];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int childItem = heap[child];
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[childItem]) {
+                child = right;
+                childItem = heap[right];
+            }
+            if (key <= keys[childItem]) {
+                break;
+            }
+            heap[i] = childItem;
+            positions[childItem] = i;
+            i = child;
+        }
+        heap[i] = item;
+        positions[item] = i;
+    }
+
+}
@@ -0,0 +1,295 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Builds raster JPEGs out of JPEG tiles without decoding them.
+ * <p>
+ *     Tiles are baseline JPEGs encoded with identical tables and a restart interval of one
+ *     MCU row, so the entropy-coded data of every tile splits at its RST markers into
+ *     independent MCU rows. A raster is the header of any tile with its SOF dimensions
+ *     rewritten, followed by the MCU rows of each tile row interleaved column by column and
+ *     separated by renumbered RST markers. Every segment still restarts the DC predictions,
+ *     so the stitched image decodes to the tiles side by side.
+ * </p>
+ * Tiles whose headers differ, e.g. encoded at another quality, cannot be stitched together.
+ * Build a pack of JPEG tiles with the main method.
+ */
+public class JpegStitcher {
+
+    /** Marker codes. */
+    private static final int SOI = 0xD8, EOI = 0xD9, SOS = 0xDA, SOF0 = 0xC0, DRI = 0xDD,
+            RST0 = 0xD0, RST7 = 0xD7;
+    /** Name of the native JPEG metadata format of ImageIO. */
+    private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+    /**
+     * Returns IM encoded as a baseline JPEG with QUALITY and a restart interval of one MCU
+     * row, ready to be stitched.
+     */
+    public static byte[] encodeTile(BufferedImage im, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+            IIOMetadata metadata =
+                    writer.getDefaultImageMetadata(new ImageTypeSpecifier(im), param);
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA);
+            IIOMetadataNode sof = (IIOMetadataNode) root.getElementsByTagName("sof").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(im.getWidth() / mcuWidth(sof)));
+            sof.getParentNode().insertBefore(dri, sof);
+            metadata.setFromTree(JPEG_METADATA, root);
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(os)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(im, null, metadata), param);
+            }
+            return os.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /** Returns the width of an MCU of the frame described by the metadata node SOF. */
+    private static int mcuWidth(IIOMetadataNode sof) {
+        int maxH = 1;
+        for (int i = 0; i < sof.getLength(); i++) {
+            IIOMetadataNode component = (IIOMetadataNode) sof.item(i);
+            maxH = Math.max(maxH, Integer.parseInt(component.getAttribute("HsamplingFactor")));
+        }
+        return 8 * maxH;
+    }
+
+    /**
+     * Returns the JPEG of a grid GRIDWIDTH tiles wide and GRIDHEIGHT tiles high, whose tiles
+     * are given row by row from the upper left as JPEGs made by encodeTile.
+     * Throws an IOException if the tiles cannot be stitched.
+     */
+    public static byte[] stitch(List<ByteBuffer> tiles, int gridWidth, int gridHeight)
+            throws IOException {
+        if (tiles.size() != gridWidth * gridHeight || tiles.isEmpty()) {
+            throw new IOException("Expected " + gridWidth + "x" + gridHeight + " tiles, got "
+                    + tiles.size());
+        }
+        Tile[] parsed = new Tile[tiles.size()];
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = new Tile(tiles.get(i));
+        }
+        Tile first = parsed[0];
+        int width = first.width * gridWidth;
+        int height = first.height * gridHeight;
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new IOException("Raster too large for a JPEG: " + width + "x" + height);
+        }
+        long length = first.headerLength + 2;
+        for (Tile tile : parsed) {
+            if (!tile.sameHeader(first)) {
+                throw new IOException("Tiles encoded with different JPEG headers");
+            }
+            length += tile.dataLength() + 2L * tile.rows;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Stitched raster too large");
+        }
+
+        ByteBuffer out = ByteBuffer.wrap(new byte[(int) length - 2]);
+        first.copyHeader(out);
+        out.putShort(first.sofOffset + 5, (short) height);
+        out.putShort(first.sofOffset + 7, (short) width);
+        int restarts = 0;
+        for (int row = 0; row < gridHeight; row++) {
+            for (int mcuRow = 0; mcuRow < first.rows; mcuRow++) {
+                for (int col = 0; col < gridWidth; col++) {
+                    if (out.position() > first.headerLength) {
+                        out.put((byte) 0xFF).put((byte) (RST0 + restarts % 8));
+                        restarts += 1;
+                    }
+                    parsed[row * gridWidth + col].copyRow(mcuRow, out);
+                }
+            }
+        }
+        out.put((byte) 0xFF).put((byte) EOI);
+        return out.array();
+    }
+
+    /** Header and MCU rows of a JPEG tile, found in its bytes. */
+    private static class Tile {
+
+        /** Encoded bytes of the tile. */
+        private final ByteBuffer bytes;
+        /** Length of everything before the entropy-coded data. */
+        private final int headerLength;
+        /** Offset of the SOF0 marker. */
+        private final int sofOffset;
+        /** Pixel dimensions and number of MCU rows. */
+        private final int width, height, rows;
+        /** Start and end offsets of the entropy-coded data of each MCU row. */
+        private final int[] rowStarts, rowEnds;
+
+        /** Tile constructor, parsing the JPEG in the remaining bytes of BYTES. */
+        Tile(ByteBuffer bytes) throws IOException {
+            this.bytes = bytes.slice();
+            ByteBuffer b = this.bytes;
+            if (b.limit() < 4 || (b.get(0) & 0xFF) != 0xFF || (b.get(1) & 0xFF) != SOI) {
+                throw new IOException("Not a JPEG tile");
+            }
+            int pos = 2;
+            int sof = -1;
+            int interval = 0;
+            while (true) {
+                if (pos + 4 > b.limit() || (b.get(pos) & 0xFF) != 0xFF) {
+                    throw new IOException("Malformed JPEG tile header");
+                }
+                int marker = b.get(pos + 1) & 0xFF;
+                int segmentLength = b.getShort(pos + 2) & 0xFFFF;
+                if (marker == SOF0) {
+                    sof = pos;
+                } else if (marker == DRI) {
+                    interval = b.getShort(pos + 4) & 0xFFFF;
+                } else if (marker >= 0xC1 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8
+                        && marker != 0xCC) {
+                    throw new IOException("Only baseline JPEG tiles can be stitched");
+                }
+                pos += 2 + segmentLength;
+                if (marker == SOS) {
+                    break;
+                }
+            }
+            if (sof < 0) {
+                throw new IOException("JPEG tile has no baseline frame");
+            }
+            headerLength = pos;
+            sofOffset = sof;
+            height = b.getShort(sof + 5) & 0xFFFF;
+            width = b.getShort(sof + 7) & 0xFFFF;
+            int components = b.get(sof + 9) & 0xFF;
+            int maxH = 1, maxV = 1;
+            for (int i = 0; i < components; i++) {
+                int sampling = b.get(sof + 11 + 3 * i) & 0xFF;
+                maxH = Math.max(maxH, sampling >> 4);
+                maxV = Math.max(maxV, sampling & 0xF);
+            }
+            int mcuWidth = 8 * maxH, mcuHeight = 8 * maxV;
+            if (width % mcuWidth != 0 || height % mcuHeight != 0
+                    || interval != width / mcuWidth) {
+                throw new IOException("JPEG tile is not restarted on every MCU row");
+            }
+            rows = height / mcuHeight;
+            rowStarts = new int[rows];
+            rowEnds = new int[rows];
+
+            int row = 0;
+            rowStarts[0] = pos;
+            while (pos + 1 < b.limit()) {
+                if ((b.get(pos) & 0xFF) != 0xFF) {
+                    pos += 1;
+                    continue;
+                }
+                int next = b.get(pos + 1) & 0xFF;
+                if (next == 0 || next == 0xFF) {
+                    pos += next == 0 ? 2 : 1;
+                } else if (next >= RST0 && next <= RST7 && row + 1 < rows) {
+                    rowEnds[row] = pos;
+                    row += 1;
+                    rowStarts[row] = pos + 2;
+                    pos += 2;
+                } else if (next == EOI) {
+                    rowEnds[row] = pos;
+                    break;
+                } else {
+                    throw new IOException("Unexpected marker in JPEG tile data");
+                }
+            }
+            if (row != rows - 1 || rowEnds[row] == 0) {
+                throw new IOException("JPEG tile has " + (row + 1) + " of " + rows
+                        + " MCU rows");
+            }
+        }
+
+        /** Returns total bytes of entropy-coded data. */
+        long dataLength() {
+            long length = 0;
+            for (int i = 0; i < rows; i++) {
+                length += rowEnds[i] - rowStarts[i];
+            }
+            return length;
+        }
+
+        /** Returns whether this tile has the same header as OTHER, byte for byte. */
+        boolean sameHeader(Tile other) {
+            if (headerLength != other.headerLength) {
+                return false;
+            }
+            for (int i = 0; i < headerLength; i++) {
+                if (bytes.get(i) != other.bytes.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Appends the header to OUT. */
+        void copyHeader(ByteBuffer out) {
+            ByteBuffer header = bytes.duplicate();
+            header.position(0).limit(headerLength);
+            out.put(header);
+        }
+
+        /** Appends the entropy-coded data of MCU row ROW to OUT. */
+        void copyRow(int row, ByteBuffer out) {
+            ByteBuffer data = bytes.duplicate();
+            data.position(rowStarts[row]).limit(rowEnds[row]);
+            out.put(data);
+        }
+    }
+
+    /**
+     * Builds a pack of stitchable JPEG tiles:
+     * JpegStitcher [tiles.pack or imgDir] [jpegPackFile] [maxDepth] [quality].
+     */
+    public static void main(String[] args) throws IOException {
+        File input = new File(args.length > 0 ? args[0] : "img");
+        File output = new File(args.length > 1 ? args[1] : "tiles.jpg.pack");
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : QuadTree.DEFAULT_MAX_DEPTH;
+        float quality = args.length > 3 ? Float.parseFloat(args[3]) : 1.0f;
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, maxDepth);
+        RasterCompositor.TileReader source = TilePack.reader(input);
+
+        TreeMap<Long, TilePack.TileBytes> tiles = new TreeMap<>();
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            for (int y = 0; y < (1 << depth); y++) {
+                for (int x = 0; x < (1 << depth); x++) {
+                    QuadTree.Tile tile = quadTree.getTile(depth, x, y);
+                    tiles.put(TilePack.key(depth, x, y), () -> {
+                        try {
+                            return encodeTile(
+                                    RasterCompositor.toIntRgb(source.read(tile)), quality);
+                        } catch (IOException e) {
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+        int count = TilePack.write(tiles, output);
+        System.out.println("Packed " + count + " JPEG tiles from " + input + " into " + output);
+    }
+
+}
@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * Static 2-d tree over points given as primitive coordinate arrays, for nearest and
+ * k-nearest queries in about O(log n).
+ * <p>
+ *     The tree is implicit: points are reordered so that the point splitting a range is its
+ *     middle element, with smaller coordinates on the axis of that level to its left and
+ *     larger ones to its right. Levels alternate between x and y. No node objects are
+ *     allocated, only three arrays of the points' size.
+ * </p>
+ * Distances are euclidean in the given coordinates. Ties go to the point given first.
+ */
+public class KdTree {
+
+    /** Index of each point as given, in tree order. */
+    private final int[] points;
+    /** Coordinates of the points in tree order. */
+    private final double[] xs, ys;
+
+    /** KdTree constructor over the points (XS[i], YS[i]). */
+    public KdTree(double[] xs, double[] ys) {
+        int n = xs.length;
+        this.points = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = i;
+        }
+        this.xs = Arrays.copyOf(xs, n);
+        this.ys = Arrays.copyOf(ys, n);
+        build(0, n, 0);
+    }
+
+    /** Returns a tree over the longitudes and latitudes of the nodes of GRAPH. */
+    public static KdTree of(RoadGraph graph) {
+        double[] lons = new double[graph.size()], lats = new double[graph.size()];
+        for (int i = 0; i < graph.size(); i++) {
+            lons[i] = graph.lon(i);
+            lats[i] = graph.lat(i);
+        }
+        return new KdTree(lons, lats);
+    }
+
+    /** Returns number of points. */
+    public int size() {
+        return points.length;
+    }
+
+    /** Orders the points from LO up to HI as a subtree splitting on axis DEPTH % 2. */
+    private void build(int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, depth & 1);
+            build(lo, mid, depth + 1);
+            lo = mid + 1;
+            depth += 1;
+        }
+    }
+
+    /**
+     * Moves the point of rank K on AXIS among LO up to HI to position K, with no larger
+     * point before it and no smaller one after it. Quickselect with middle pivots.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        double[] keys = axis == 0 ? xs : ys;
+        hi -= 1;
+        while (hi > lo) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i += 1;
+                }
+                while (keys[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** Swaps the points at tree positions I and J. */
+    private void swap(int i, int j) {
+        int point = points[i];
+        points[i] = points[j];
+        points[j] = point;
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+
+    /** Returns the index of the point nearest (X, Y), or -1 if there are none. */
+    public int nearest(double x, double y) {
+        int[] found = kNearest(x, y, 1);
+        return found.length > 0 ? found[0] : -1;
+    }
+
+    /** Returns the indices of the K points nearest (X, Y), nearest first. */
+    public int[] kNearest(double x, double y, int k) {
+        Neighbors neighbors = new Neighbors(Math.min(k, points.length));
+        if (neighbors.capacity > 0) {
+            search(0, points.length, 0, x, y, neighbors);
+        }
+        return neighbors.sorted();
+    }
+
+    /** Offers every point of the subtree from LO up to HI that may be among NEIGHBORS. */
+    private void search(int lo, int hi, int depth, double x, double y, Neighbors neighbors) {
+        while (hi > lo) {
+            int mid = (lo + hi) >>> 1;
+            double dx = xs[mid] - x, dy = ys[mid] - y;
+            neighbors.offer(points[mid], dx * dx + dy * dy);
+            double diff = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+            /* Search the side of the query first, then the other side if it can still help. */
+            int nearLo = diff < 0 ? lo : mid + 1, nearHi = diff < 0 ? mid : hi;
+            int farLo = diff < 0 ? mid + 1 : lo, farHi = diff < 0 ? hi : mid;
+            search(nearLo, nearHi, depth + 1, x, y, neighbors);
+            if (diff * diff > neighbors.worst()) {
+                return;
+            }
+            lo = farLo;
+            hi = farHi;
+            depth += 1;
+        }
+    }
+
+    /** Bounded max-heap of the nearest points found so far, by squared distance. */
+    private static class Neighbors {
+
+        private final int capacity;
+        private final int[] points;
+        private final double[] distances;
+        private int size;
+
+        /** Neighbors constructor keeping CAPACITY points. */
+        Neighbors(int capacity) {
+            this.capacity = capacity;
+            this.points = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        /** Returns the largest squared distance kept, or infinity while not full. */
+        double worst() {
+            return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        /** Keeps POINT at squared DISTANCE if it is nearer than the worst point kept. */
+        void offer(int point, double distance) {
+            if (size < capacity) {
+                int i = size++;
+                points[i] = point;
+                distances[i] = distance;
+                siftUp(i);
+            } else if (before(point, distance, points[0], distances[0])) {
+                points[0] = point;
+                distances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        /** Returns whether POINT at DISTANCE ranks before OTHER at OTHERDISTANCE. */
+        private static boolean before(int point, double distance, int other,
+                                      double otherDistance) {
+            return distance < otherDistance || distance == otherDistance && point < other;
+        }
+
+        /** Moves the point at position I up to its place. */
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(points[parent], distances[parent], points[i], distances[i])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        /** Moves the point at position I down to its place. */
+        private void siftDown(int i) {
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && before(points[child], distances[child],
+                        points[child + 1], distances[child + 1])) {
+                    child += 1;
+                }
+                if (!before(points[i], distances[i], points[child], distances[child])) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        /** Swaps the points at heap positions I and J. */
+        private void swap(int i, int j) {
+            int point = points[i];
+            points[i] = points[j];
+            points[j] = point;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+
+        /** Returns the points kept, nearest first, emptying the heap. */
+        int[] sorted() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = points[0];
+                size -= 1;
+                points[0] = points[size];
+                distances[0] = distances[size];
+                siftDown(0);
+            }
+            return result;
+        }
+    }
+
+}
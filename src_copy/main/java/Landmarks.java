@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * ALT heuristic: A*, landmarks and the triangle inequality.
+ * <p>
+ *     A few landmark nodes are chosen at load time by farthest selection, each one the node
+ *     furthest by road from the landmarks already chosen, so they end up around the edges of
+ *     the largest connected part of the map. The road distance from every landmark to every
+ *     node is computed once with Dijkstra. Roads are two way, so for any landmark L the
+ *     distance from a node v to a target t is at least |d(L, t) - d(L, v)|; the estimate is
+ *     the largest of these bounds and the straight line distance.
+ * </p>
+ * Unlike the straight line distance alone, these bounds see rivers, hills and dead ends that
+ * force detours, so A* settles far fewer nodes on long routes.
+ */
+public class Landmarks implements Heuristic {
+
+    /** Landmarks used when none are configured. */
+    public static final int DEFAULT_COUNT = 16;
+
+    /** Graph the distances were computed on. */
+    private final RoadGraph graph;
+    /** Landmark nodes, in order of selection. */
+    private final int[] landmarks;
+    /** Distance from landmark l to node v at index v * landmarks.length + l, node major. */
+    private final double[] distances;
+
+    /** Landmarks constructor. */
+    private Landmarks(RoadGraph graph, int[] landmarks, double[] distances) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /** Returns up to COUNT landmarks of GRAPH chosen by farthest selection. */
+    public static Landmarks select(RoadGraph graph, int count) {
+        int n = graph.size();
+        count = Math.min(count, n);
+        int[] landmarks = new int[count];
+        double[] distances = new double[n * count];
+        if (count == 0) {
+            return new Landmarks(graph, landmarks, distances);
+        }
+        double[] dist = new double[n];
+        /* Distance from each node to its nearest landmark so far, by road. */
+        double[] nearest = new double[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+
+        /* The first landmark is the node furthest from a node of the largest component. */
+        dijkstra(graph, largestComponentNode(graph), dist, heap);
+        int next = farthest(dist);
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        for (int l = 0; l < count; l++) {
+            landmarks[l] = next;
+            dijkstra(graph, next, dist, heap);
+            for (int v = 0; v < n; v++) {
+                distances[v * count + l] = dist[v];
+                nearest[v] = Math.min(nearest[v], dist[v]);
+            }
+            next = farthest(nearest);
+        }
+        return new Landmarks(graph, landmarks, distances);
+    }
+
+    /** Returns the node with the largest finite SCORE. */
+    private static int farthest(double[] score) {
+        int best = -1;
+        for (int v = 0; v < score.length; v++) {
+            if (score[v] != Double.POSITIVE_INFINITY && (best < 0 || score[v] > score[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Returns a node of the connected component of GRAPH with the most nodes. */
+    private static int largestComponentNode(RoadGraph graph) {
+        int node = 0;
+        while (graph.component(node) != 0) {
+            node += 1;
+        }
+        return node;
+    }
+
+    /** Fills DIST with the distances from SOURCE to every node of GRAPH, using HEAP. */
+    private static void dijkstra(RoadGraph graph, int source, double[] dist,
+                                 IndexedMinHeap heap) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        heap.clear();
+        dist[source] = 0;
+        heap.insertOrDecrease(source, 0);
+        while (!heap.isEmpty()) {
+            int node = heap.poll();
+            for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                int target = graph.target(e);
+                double d = dist[node] + graph.weight(e);
+                if (d < dist[target]) {
+                    dist[target] = d;
+                    heap.insertOrDecrease(target, d);
+                }
+            }
+        }
+    }
+
+    /** Returns the landmark nodes. */
+    public int[] getLandmarks() {
+        return landmarks.clone();
+    }
+
+    /** Returns approximate bytes used by the distance tables. */
+    public long bytes() {
+        return 8L * distances.length;
+    }
+
+    @Override
+    public double estimate(int node, int target) {
+        double bound = graph.distance(node, graph.lon(target), graph.lat(target));
+        int k = landmarks.length;
+        int nodeRow = node * k, targetRow = target * k;
+        for (int l = 0; l < k; l++) {
+            double toNode = distances[nodeRow + l], toTarget = distances[targetRow + l];
+            /* A landmark in another component bounds nothing. */
+            if (toNode != Double.POSITIVE_INFINITY && toTarget != Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, Math.abs(toTarget - toNode));
+            }
+        }
+        return bound;
+    }
+
+}
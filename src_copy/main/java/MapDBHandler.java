@@ -30,13 +30,15 @@ public class MapDBHandler extends DefaultHandler {
     /** Parsing mode. */
     private String activeState = "";
     /** Current ID of GraphNode. */
-    private Long currId;
+    private long currId;
+    /** Coordinates of the current node. */
+    private double currLon, currLat;
+    /** GraphNode of the current node once it has a name, null before. */
+    private GraphNode currNamed;
     /** Nodes of a road. */
     private ArrayList<Long> connectedNodes;
     /** Type of Road. */
     private String roadType;
-    /** List of all Nodes created. */
-    private HashMap<Long, GraphNode> allNodes = new HashMap<>();
     /** GraphDatabase. */
     private final GraphDB g;
 
@@ -66,9 +68,10 @@ public class MapDBHandler extends DefaultHandler {
 
             activeState = "node";
             currId = Long.parseLong(attributes.getValue("id"));
-            Double lat = Double.parseDouble(attributes.getValue("lat"));
-            Double lon = Double.parseDouble(attributes.getValue("lon"));
-            allNodes.put(currId, new GraphNode(lon, lat, currId));
+            currLat = Double.parseDouble(attributes.getValue("lat"));
+            currLon = Double.parseDouble(attributes.getValue("lon"));
+            currNamed = null;
+            g.addNode(currId, currLon, currLat);
 
         } else if (qName.equals("way")) {
 
@@ -76,11 +79,10 @@ public class MapDBHandler extends DefaultHandler {
             currId = Long.parseLong(attributes.getValue("id"));
             roadType = "";
             connectedNodes = new ArrayList<>();
-            connectedNodes.add(currId);
 
         } else if (activeState.equals("way") && qName.equals("nd")) {
 
-            Long k = Long.parseLong(attributes.getValue("ref"));
+            long k = Long.parseLong(attributes.getValue("ref"));
             currId = k;
             connectedNodes.add(k);
 
@@ -88,7 +90,10 @@ public class MapDBHandler extends DefaultHandler {
                 .equals("name")) {
 
             String v = attributes.getValue("v");
-            g.addWord(v, allNodes.get(currId));
+            if (currNamed == null) {
+                currNamed = new GraphNode(currLon, currLat, currId);
+            }
+            g.addWord(v, currNamed);
 
         } else if (activeState.equals("way") && qName.equals("tag") && attributes.getValue("k")
                 .equals("highway")) {
@@ -113,21 +118,8 @@ public class MapDBHandler extends DefaultHandler {
 
         if (qName.equals("way")) {
             if (roadType.length() > 0 && ALLOWED_HIGHWAY_TYPES.contains(roadType)) {
-                if (connectedNodes.size() != 0) {
-                    GraphNode prev = null;
-                    for (Long node : connectedNodes) {
-                        if (prev == null) {
-                            prev = allNodes.get(node);
-                        } else {
-                            GraphNode node1 = allNodes.get(node);
-                            prev.addNeighbor(node1);
-                            node1.addNeighbor(prev);
-                            g.addNode(prev.getId(), prev);
-                            g.addNode(node, node1);
-                            prev = node1;
-                        }
-
-                    }
+                for (int i = 1; i < connectedNodes.size(); i++) {
+                    g.addEdge(connectedNodes.get(i - 1), connectedNodes.get(i));
                 }
             }
         }
@@ -1,19 +1,24 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 import static spark.Spark.*;
 
@@ -33,19 +38,120 @@ public class MapServer {
             ROOT_LRLAT = 37.82280243352756, ROOT_LRLON = -122.2119140625;
     /** Each tile is 256x256 pixels. */
     public static final int TILE_SIZE = 256;
+    /** Image format of rasters, set with -Dbearmaps.rasterFormat: jpg, or bmp for low CPU. */
+    private static final String RASTER_FORMAT = System.getProperty("bearmaps.rasterFormat", "jpg");
+    /** Default raster quality, set with -Dbearmaps.rasterQuality; requests may pass quality. */
+    private static final float RASTER_QUALITY =
+            Float.parseFloat(System.getProperty("bearmaps.rasterQuality", "1.0"));
+    /** Encoder of writeJpgToStream, always at the highest jpg quality. */
+    private static final RasterEncoder BEST_JPG_ENCODER = new RasterEncoder("jpg", 1.0F);
+    /**
+     * Whether rasters are cropped to the query box and scaled to the viewport by default, set
+     * with -Dbearmaps.cropRasters; requests may pass crop=true or crop=false.
+     */
+    private static final boolean CROP_RASTERS = Boolean.getBoolean("bearmaps.cropRasters");
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP responses of a tile that is not found and of a tile the client already has. */
+    private static final int NOT_FOUND_RESPONSE = 404, NOT_MODIFIED_RESPONSE = 304;
+    /** Tiles may be cached by browsers and proxies for a day. */
+    private static final String TILE_CACHE_CONTROL = "public, max-age=86400";
+    /** HTTP response of a binary raster query that rastered nothing. */
+    private static final int NO_CONTENT_RESPONSE = 204;
+    /** Response headers of the binary raster endpoint that browsers may read. */
+    private static final String RASTER_HEADERS = "X-Raster-Ul-Lon, X-Raster-Ul-Lat, "
+            + "X-Raster-Lr-Lon, X-Raster-Lr-Lat, X-Raster-Width, X-Raster-Height, X-Depth, "
+            + "X-Query-Success";
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /** Depth of the deepest tiles in the img/ folder, set with -Dbearmaps.tileDepth. */
+    private static final int TILE_DEPTH =
+            Integer.getInteger("bearmaps.tileDepth", QuadTree.DEFAULT_MAX_DEPTH);
+    /** Byte budget of decoded tiles kept in memory, set with -Dbearmaps.tileCacheBytes. */
+    private static final long TILE_CACHE_BYTES =
+            Long.getLong("bearmaps.tileCacheBytes", 256L << 20);
+    /** Byte budget of encoded rasters kept in memory, set with -Dbearmaps.rasterCacheBytes. */
+    private static final long RASTER_CACHE_BYTES =
+            Long.getLong("bearmaps.rasterCacheBytes", 64L << 20);
+    /** Byte budget of route overlays kept in memory, set with -Dbearmaps.routeOverlayCacheBytes. */
+    private static final long ROUTE_OVERLAY_CACHE_BYTES =
+            Long.getLong("bearmaps.routeOverlayCacheBytes", 32L << 20);
+    /** Routes kept in memory by where they start and end, set with -Dbearmaps.routeCacheSize. */
+    private static final long ROUTE_CACHE_SIZE = Long.getLong("bearmaps.routeCacheSize", 1024);
+    /** Threads compositing each raster, set with -Dbearmaps.rasterThreads; 1 is sequential. */
+    private static final int RASTER_THREADS =
+            Integer.getInteger("bearmaps.rasterThreads",
+                    Runtime.getRuntime().availableProcessors());
     /** The tile images are in the IMG_ROOT folder. */
     private static final String IMG_ROOT = "img/";
+    /**
+     * Tile pack built from IMG_ROOT with TilePack.main, set with -Dbearmaps.tilePack.
+     * Tiles are read from IMG_ROOT when the pack does not exist.
+     */
+    private static final String TILE_PACK_PATH =
+            System.getProperty("bearmaps.tilePack", "tiles.pack");
+    /**
+     * Store of pre-decoded tiles built with RawTileStore.main, set with -Dbearmaps.rawTiles.
+     * Tiles it holds are copied straight from the mapping instead of being decoded.
+     */
+    private static final String RAW_TILES_PATH =
+            System.getProperty("bearmaps.rawTiles", "tiles.raw");
+    /**
+     * Whether rasters without a route are stitched from JPEG tiles instead of being composited
+     * and encoded, set with -Dbearmaps.jpegStitching. Only applies to uncropped jpg rasters at
+     * the default quality.
+     */
+    private static final boolean JPEG_STITCHING = Boolean.getBoolean("bearmaps.jpegStitching");
+    /**
+     * Pack of stitchable JPEG tiles built with JpegStitcher.main at the default raster quality,
+     * set with -Dbearmaps.jpegTiles. Tiles it lacks are encoded when first needed.
+     */
+    private static final String JPEG_TILES_PATH =
+            System.getProperty("bearmaps.jpegTiles", "tiles.jpg.pack");
+    /** Byte budget of JPEG tiles encoded on demand, set with -Dbearmaps.jpegTileCacheBytes. */
+    private static final long JPEG_TILE_CACHE_BYTES =
+            Long.getLong("bearmaps.jpegTileCacheBytes", 64L << 20);
+    /**
+     * Route search, set with -Dbearmaps.routing: astar searches the road graph directly, alt
+     * searches it guided by LANDMARKS Landmarks chosen at startup, ch queries a
+     * ContractionHierarchy, loaded from CH_PATH or built at startup and saved there.
+     */
+    private static final String ROUTING = System.getProperty("bearmaps.routing", "astar");
+    /**
+     * Whether astar and alt route searches run from both ends at once, set with
+     * -Dbearmaps.bidirectionalRouting. Both heuristics are tight enough that this settles
+     * about as many nodes as searching from the start alone; see BidirectionalRouter.
+     */
+    private static final boolean BIDIRECTIONAL_ROUTING =
+            Boolean.getBoolean("bearmaps.bidirectionalRouting");
+    /**
+     * Whether routes start and end at the nearest points on roads rather than the nearest
+     * nodes, set with -Dbearmaps.snapToRoads.
+     */
+    private static final boolean SNAP_TO_ROADS = Boolean.getBoolean("bearmaps.snapToRoads");
+    /** Landmarks of the alt route search, set with -Dbearmaps.landmarks. */
+    private static final int LANDMARKS =
+            Integer.getInteger("bearmaps.landmarks", Landmarks.DEFAULT_COUNT);
+    /** Contraction hierarchy built with ContractionHierarchy.main, set with -Dbearmaps.chFile. */
+    private static final String CH_PATH = System.getProperty("bearmaps.chFile", "berkeley.ch");
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "berkeley.osm";
+    /**
+     * Road components of fewer nodes are dropped at load time, set with
+     * -Dbearmaps.minComponentSize. 1 keeps every road.
+     */
+    private static final int MIN_COMPONENT_SIZE =
+            Integer.getInteger("bearmaps.minComponentSize", 1);
+    /**
+     * Whether roads are weighed by their length in metres rather than by the euclidean
+     * distance in degrees that findAndDrawRoute specifies, set with -Dbearmaps.metreWeights.
+     */
+    private static final boolean METRE_WEIGHTS = Boolean.getBoolean("bearmaps.metreWeights");
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -70,9 +176,39 @@ public class MapServer {
     /** QuadTree. */
     private static QuadTree quadTree;
     /** Saved BufferedImages by their string name. */
-    private static Map<String, Object> images;
-    /** List of all Nodes. */
-    private static Map<Long, GraphNode> nodeList;
+    private static ConcurrentLruCache<String, BufferedImage> images;
+    /** Source of encoded tiles, either a TilePack or the IMG_ROOT folder. */
+    private static RasterCompositor.TileReader tileSource;
+    /** ETags of the tiles served by the tile endpoint, by image name. */
+    private static Map<String, String> tileEtags;
+    /** Pre-decoded tiles, null when there is no raw tile store. */
+    private static RawTileStore rawTiles;
+    /** Encoded rasters without a route, by tile grid and quality. */
+    private static ConcurrentLruCache<String, byte[]> rasterCache;
+    /** Routes drawn on transparent layers, by route and tile grid. */
+    private static ConcurrentLruCache<String, RouteOverlay> routeOverlays;
+    /** Pre-encoded JPEG tiles, null when there is no JPEG tile pack. */
+    private static TilePack jpegTilePack;
+    /** JPEG tiles encoded on demand, by image name. */
+    private static ConcurrentLruCache<String, byte[]> jpegTiles;
+    /** Encoder of raster responses. */
+    private static RasterEncoder encoder;
+    /** Compositor of tiles into rasters. */
+    private static RasterCompositor compositor;
+    /** Road graph of all connected nodes. */
+    private static RoadGraph graph;
+    /** Spatial index of the nodes of GRAPH by longitude and latitude. */
+    private static KdTree nodeIndex;
+    /** Spatial index of the road segments of GRAPH, null unless SNAP_TO_ROADS. */
+    private static EdgeRTree edgeIndex;
+    /** Shortest route search over GRAPH. */
+    private static RouteEngine router;
+    /** Routes between nodes, by their packed node indices. */
+    private static ConcurrentLruCache<Long, RouteResult> routes;
+    /** Routes between points on roads, by their RouteEnds key, null unless SNAP_TO_ROADS. */
+    private static ConcurrentLruCache<String, SnappedRoute> snappedRoutes;
+    /** Number of routes searched and nodes settled searching them. */
+    private static AtomicLong routesSearched, nodesSettled;
     /** Hashtable of Strings to corresponding GraphNodes. */
     private static Hashtable<String, List<GraphNode>> stringList;
 
@@ -83,13 +219,86 @@ public class MapServer {
      **/
     public static void initialize() {
 
-        g = new GraphDB(OSM_DB_PATH);
-        quadTree = new QuadTree(ROOT_ULLON, ROOT_ULLAT, ROOT_LRLON, ROOT_LRLAT);
-        images = new HashMap<>();
-        nodeList = g.getNodeMap();
+        g = new GraphDB(OSM_DB_PATH, MIN_COMPONENT_SIZE, METRE_WEIGHTS);
+        quadTree = new QuadTree(ROOT_ULLON, ROOT_ULLAT, ROOT_LRLON, ROOT_LRLAT, TILE_DEPTH);
+        images = new ConcurrentLruCache<>(TILE_CACHE_BYTES, (name, im) -> imageBytes(im));
+        tileSource = MapServer::readTileFile;
+        File tilePack = new File(TILE_PACK_PATH);
+        if (tilePack.isFile()) {
+            try {
+                tileSource = new TilePack(tilePack);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        tileEtags = new ConcurrentHashMap<>();
+        rawTiles = null;
+        File rawTileFile = new File(RAW_TILES_PATH);
+        if (rawTileFile.isFile()) {
+            try {
+                rawTiles = new RawTileStore(rawTileFile);
+                if (rawTiles.getTileSize() != TILE_SIZE) {
+                    System.err.println("Ignoring raw tile store of " + rawTiles.getTileSize()
+                            + "px tiles: " + rawTileFile);
+                    rawTiles = null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        jpegTilePack = null;
+        File jpegTileFile = new File(JPEG_TILES_PATH);
+        if (JPEG_STITCHING && jpegTileFile.isFile()) {
+            try {
+                jpegTilePack = new TilePack(jpegTileFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        jpegTiles = new ConcurrentLruCache<>(JPEG_TILE_CACHE_BYTES,
+                (name, bytes) -> bytes.length);
+        routeOverlays = new ConcurrentLruCache<>(ROUTE_OVERLAY_CACHE_BYTES,
+                (key, overlay) -> Math.max(1, overlay.bytes()));
+        compositor = new RasterCompositor(TILE_SIZE, RASTER_THREADS);
+        encoder = new RasterEncoder(RASTER_FORMAT, RASTER_QUALITY);
+        rasterCache = new ConcurrentLruCache<>(RASTER_CACHE_BYTES,
+                (key, bytes) -> bytes.length);
+        graph = g.getGraph();
+        nodeIndex = KdTree.of(graph);
+        edgeIndex = SNAP_TO_ROADS ? EdgeRTree.build(graph) : null;
+        router = routeEngine(graph);
+        routes = new ConcurrentLruCache<>(ROUTE_CACHE_SIZE);
+        snappedRoutes = SNAP_TO_ROADS ? new ConcurrentLruCache<>(ROUTE_CACHE_SIZE) : null;
+        routesSearched = new AtomicLong();
+        nodesSettled = new AtomicLong();
         stringList = g.getStringNodes();
     }
 
+    /** Returns the route search over GRAPH chosen by ROUTING. */
+    private static RouteEngine routeEngine(RoadGraph graph) {
+        if (!"ch".equals(ROUTING)) {
+            Heuristic heuristic = "alt".equals(ROUTING) ? Landmarks.select(graph, LANDMARKS)
+                    : Heuristic.euclidean(graph);
+            return BIDIRECTIONAL_ROUTING ? new BidirectionalRouter(graph, heuristic)
+                    : new Router(graph, heuristic);
+        }
+        File chFile = new File(CH_PATH);
+        if (chFile.isFile()) {
+            try {
+                return ContractionHierarchy.load(graph, chFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = ContractionHierarchy.build(graph);
+        try {
+            ch.save(chFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return ch;
+    }
+
     public static void main(String[] args) {
         initialize();
         staticFileLocation("/page");
@@ -99,41 +308,83 @@ public class MapServer {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
+            response.header("Access-Control-Expose-Headers", RASTER_HEADERS);
         });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
         get("/raster", (req, res) -> {
-            HashMap<String, Double> rasterParams =
-                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* Required to have valid raster params */
-            validateRequestParameters(rasterParams, REQUIRED_RASTER_REQUEST_PARAMS);
             /* Create the Map for return parameters. */
             Map<String, Object> rasteredImgParams = new HashMap<>();
-            /* getMapRaster() does almost all the work for this API call */
-            BufferedImage im = getMapRaster(rasterParams, rasteredImgParams);
-            /* Check if we have routing parameters. */
-            HashMap<String, Double> routeParams =
-                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            /* If we do, draw the route too. */
-            if (hasRequestParameters(routeParams, REQUIRED_ROUTE_REQUEST_PARAMS)) {
-                findAndDrawRoute(routeParams, rasteredImgParams, im);
-            }
+            /* rasterRequest() does almost all the work for this API call */
+            byte[] encoded = rasterRequest(req, res, rasteredImgParams);
             /* On an image query success, add the image data to the response */
-            if (rasteredImgParams.containsKey("query_success")
-                    && (Boolean) rasteredImgParams.get("query_success")) {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                writeJpgToStream(im, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+            if (encoded != null) {
+                String encodedImage = Base64.getEncoder().encodeToString(encoded);
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
-                os.flush();
-                os.close();
             }
             /* Encode response to Json */
             Gson gson = new Gson();
             return gson.toJson(rasteredImgParams);
         });
 
+        /* Define the binary raster endpoint: the same query as /raster, but the JPEG is
+         * streamed as the response body and the raster parameters are sent as headers. */
+        get("/raster/image", (req, res) -> {
+            Map<String, Object> rasteredImgParams = new HashMap<>();
+            byte[] encoded = rasterRequest(req, res, rasteredImgParams);
+            for (Map.Entry<String, Object> param : rasteredImgParams.entrySet()) {
+                res.header(rasterHeader(param.getKey()), String.valueOf(param.getValue()));
+            }
+            if (encoded == null) {
+                res.status(NO_CONTENT_RESPONSE);
+                return "";
+            }
+            res.type(encoder.contentType());
+            res.raw().setContentLength(encoded.length);
+            OutputStream os = res.raw().getOutputStream();
+            os.write(encoded);
+            os.flush();
+            return "";
+        });
+
+        /* Define the tile manifest endpoint: the tiles a /raster query would composite, as
+         * URLs of the tile endpoint, so clients can fetch and cache the tiles themselves. */
+        get("/tiles/manifest", (req, res) -> {
+            HashMap<String, Double> rasterParams =
+                    getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+            validateRequestParameters(rasterParams, REQUIRED_RASTER_REQUEST_PARAMS);
+            Map<String, Object> manifest = new HashMap<>();
+            TileSelection selection = selectTiles(rasterParams, manifest);
+            List<String> tileUrls = new ArrayList<>(selection.getTiles().size());
+            for (QuadTree.Tile tile : selection.getTiles()) {
+                tileUrls.add("/tiles/" + tile.getDepth() + "/" + tile.getX() + "/" + tile.getY());
+            }
+            manifest.put("grid_width", selection.getGridWidth());
+            manifest.put("grid_height", selection.getGridHeight());
+            manifest.put("tile_size", TILE_SIZE);
+            manifest.put("tiles", tileUrls);
+            Gson gson = new Gson();
+            return gson.toJson(manifest);
+        });
+
+        /* Define the tile endpoint, serving single encoded tiles with HTTP caching headers. */
+        get("/tiles/:depth/:x/:y", (req, res) -> {
+            QuadTree.Tile tile = requestTile(req);
+            String etag = tileEtag(tile);
+            res.header("ETag", etag);
+            res.header("Cache-Control", TILE_CACHE_CONTROL);
+            if (etagMatches(req.headers("If-None-Match"), etag)) {
+                res.status(NOT_MODIFIED_RESPONSE);
+                return "";
+            }
+            res.type("image/png");
+            OutputStream os = res.raw().getOutputStream();
+            writeTileBytes(tile, os);
+            os.flush();
+            return "";
+        });
+
         /* Define the API endpoint for search */
         get("/search", (req, res) -> {
             Set<String> reqParams = req.queryParams();
@@ -150,6 +401,35 @@ public class MapServer {
             }
         });
 
+        /* Define the API endpoint for cache statistics */
+        get("/stats", (req, res) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("tile_cache", images.stats());
+            stats.put("raster_cache", rasterCache.stats());
+            stats.put("route_overlay_cache", routeOverlays.stats());
+            stats.put("route_cache", SNAP_TO_ROADS ? snappedRoutes.stats() : routes.stats());
+            if (JPEG_STITCHING) {
+                stats.put("jpeg_tile_cache", jpegTiles.stats());
+            }
+            Map<String, Object> encoding = new LinkedHashMap<>();
+            encoding.put("format", RASTER_FORMAT);
+            encoding.put("encodes", encoder.encodeCount());
+            encoding.put("encode_ms", encoder.encodeMillis());
+            stats.put("encoder", encoding);
+            Map<String, Object> routing = new LinkedHashMap<>();
+            routing.put("nodes", graph.size());
+            routing.put("components", graph.componentCount());
+            routing.put("weights", graph.isMetres() ? "metres" : "degrees");
+            routing.put("engine", ROUTING);
+            routing.put("bidirectional", BIDIRECTIONAL_ROUTING && !"ch".equals(ROUTING));
+            routing.put("routes", routesSearched.get());
+            routing.put("settled", nodesSettled.get());
+            routing.put("mean_settled", nodesSettled.get() / Math.max(1, routesSearched.get()));
+            stats.put("routing", routing);
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
         /* Define map application redirect */
         get("/", (request, response) -> {
             response.redirect("/map.html", 301);
@@ -157,6 +437,283 @@ public class MapServer {
         });
     }
 
+    /**
+     * Validates the raster parameters of REQ, rasters the map into RASTEREDIMGPARAMS and draws
+     * the route on it if REQ has routing parameters.
+     * Rasters are served from the raster cache when the same tile grid, with the same route
+     * if any, was encoded before at the same quality. Routes are drawn on overlays cached by
+     * route and tile grid, so rasters of the same route at other qualities reuse them.
+     * Cropped rasters show only the query box, resampled to the viewport size, and report the
+     * cropped bounds in RASTEREDIMGPARAMS.
+     * @return the encoded raster, or null if no image was rastered.
+     */
+    private static byte[] rasterRequest(spark.Request req, spark.Response res,
+                                        Map<String, Object> rasteredImgParams)
+            throws IOException {
+        HashMap<String, Double> rasterParams =
+                getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
+        /* Required to have valid raster params */
+        validateRequestParameters(rasterParams, REQUIRED_RASTER_REQUEST_PARAMS);
+        TileSelection selection = selectTiles(rasterParams, rasteredImgParams);
+        if (selection.isEmpty()) {
+            return null;
+        }
+        float quality = requestQuality(req);
+        double[] region = requestCrop(req)
+                ? cropToViewport(rasterParams, rasteredImgParams) : null;
+        /* Check if we have routing parameters. */
+        HashMap<String, Double> routeParams =
+                getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+        String gridKey = selection.getKey();
+        if (region != null) {
+            gridKey += "@" + Arrays.toString(region) + rasteredImgParams.get("raster_width")
+                    + "x" + rasteredImgParams.get("raster_height");
+        }
+        if (!hasRequestParameters(routeParams, REQUIRED_ROUTE_REQUEST_PARAMS)) {
+            String key = gridKey + "@" + quality;
+            if (region == null && canStitch(quality)) {
+                return cachedRaster(key, res, k -> stitchRaster(selection, quality, res));
+            }
+            return cachedRaster(key, res, k -> encodeRaster(
+                    composite(selection, region, rasteredImgParams), quality, res));
+        }
+        /* If we do, lay the route over the raster, both cached by route and tile grid. */
+        RouteEnds ends = routeEnds(routeParams);
+        String overlayKey = ends.key() + "@" + gridKey;
+        String key = overlayKey + "@" + quality;
+        return cachedRaster(key, res, k -> {
+            BufferedImage im = composite(selection, region, rasteredImgParams);
+            routeOverlays.get(overlayKey,
+                    ok -> routeOverlay(ends, rasteredImgParams)).paint(im);
+            return encodeRaster(im, quality, res);
+        });
+    }
+
+    /**
+     * Returns the raster cached for KEY, loading it with LOADER on a miss. Marks RES as a
+     * raster cache hit unless this request loaded the raster itself.
+     */
+    private static byte[] cachedRaster(String key, spark.Response res,
+                                       ConcurrentLruCache.Loader<String, byte[]> loader)
+            throws IOException {
+        boolean[] loaded = new boolean[1];
+        byte[] raster = rasterCache.get(key, k -> {
+            loaded[0] = true;
+            return loader.load(k);
+        });
+        if (!loaded[0]) {
+            res.header("Server-Timing", "raster-cache;desc=hit");
+        }
+        return raster;
+    }
+
+    /** Returns whether rasters of QUALITY may be stitched from JPEG tiles. */
+    private static boolean canStitch(float quality) {
+        return JPEG_STITCHING && "jpg".equals(RASTER_FORMAT)
+                && quality == encoder.getDefaultQuality();
+    }
+
+    /**
+     * Returns the JPEG raster of SELECTION stitched from JPEG tiles, reporting the stitch
+     * time on RES. Falls back to compositing and encoding if the tiles cannot be stitched.
+     */
+    private static byte[] stitchRaster(TileSelection selection, float quality,
+                                       spark.Response res) throws IOException {
+        long start = System.nanoTime();
+        List<ByteBuffer> tiles = new ArrayList<>(selection.getTiles().size());
+        for (QuadTree.Tile tile : selection.getTiles()) {
+            tiles.add(jpegTile(tile));
+        }
+        try {
+            byte[] stitched = JpegStitcher.stitch(tiles,
+                    selection.getGridWidth(), selection.getGridHeight());
+            res.header("Server-Timing", "stitch;dur=" + (System.nanoTime() - start) / 1e6);
+            return stitched;
+        } catch (IOException e) {
+            return encodeRaster(compositor.composite(selection, MapServer::copyTile),
+                    quality, res);
+        }
+    }
+
+    /** Returns the stitchable JPEG of TILE, from the JPEG tile pack or encoded on demand. */
+    private static ByteBuffer jpegTile(QuadTree.Tile tile) throws IOException {
+        if (jpegTilePack != null) {
+            ByteBuffer packed = jpegTilePack.get(tile.getDepth(), tile.getX(), tile.getY());
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return ByteBuffer.wrap(jpegTiles.get(tile.getImgName(), name -> {
+            BufferedImage im = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            copyTile(tile, ((DataBufferInt) im.getRaster().getDataBuffer()).getData(),
+                    0, TILE_SIZE);
+            return JpegStitcher.encodeTile(im, encoder.getDefaultQuality());
+        }));
+    }
+
+    /**
+     * Returns the raster of SELECTION, cut down to REGION and resized to the raster width and
+     * height of RASTEREDIMGPARAMS when REGION is not null.
+     */
+    private static BufferedImage composite(TileSelection selection, double[] region,
+                                           Map<String, Object> rasteredImgParams)
+            throws IOException {
+        BufferedImage im = compositor.composite(selection, MapServer::copyTile);
+        if (region == null) {
+            return im;
+        }
+        return RasterCompositor.resample(im, region[0], region[1], region[2], region[3],
+                (int) rasteredImgParams.get("raster_width"),
+                (int) rasteredImgParams.get("raster_height"));
+    }
+
+    /**
+     * Shrinks the raster described by RASTEREDIMAGEPARAMS to the part of it inside the query
+     * box of INPUTPARAMS, scaled to the viewport, and updates the raster parameters to match.
+     * @return the region {x, y, width, height} of the full raster that the cropped raster
+     * shows, or null if the query box is degenerate and the raster is left whole.
+     */
+    static double[] cropToViewport(Map<String, Double> inputParams,
+                                   Map<String, Object> rasteredImageParams) {
+        double rasterUllon = (double) rasteredImageParams.get("raster_ul_lon");
+        double rasterUllat = (double) rasteredImageParams.get("raster_ul_lat");
+        double rasterLrlon = (double) rasteredImageParams.get("raster_lr_lon");
+        double rasterLrlat = (double) rasteredImageParams.get("raster_lr_lat");
+        int rasterWidth = (int) rasteredImageParams.get("raster_width");
+        int rasterHeight = (int) rasteredImageParams.get("raster_height");
+
+        double queryLon = inputParams.get("lrlon") - inputParams.get("ullon");
+        double queryLat = inputParams.get("ullat") - inputParams.get("lrlat");
+        double ullon = Math.max(rasterUllon, inputParams.get("ullon"));
+        double ullat = Math.min(rasterUllat, inputParams.get("ullat"));
+        double lrlon = Math.min(rasterLrlon, inputParams.get("lrlon"));
+        double lrlat = Math.max(rasterLrlat, inputParams.get("lrlat"));
+        if (queryLon <= 0 || queryLat <= 0 || lrlon <= ullon || ullat <= lrlat) {
+            return null;
+        }
+
+        double lonPerPixel = (rasterLrlon - rasterUllon) / rasterWidth;
+        double latPerPixel = (rasterUllat - rasterLrlat) / rasterHeight;
+        int width = (int) Math.max(1,
+                Math.round(inputParams.get("w") * (lrlon - ullon) / queryLon));
+        int height = (int) Math.max(1,
+                Math.round(inputParams.get("h") * (ullat - lrlat) / queryLat));
+
+        rasteredImageParams.put("raster_ul_lon", ullon);
+        rasteredImageParams.put("raster_ul_lat", ullat);
+        rasteredImageParams.put("raster_lr_lon", lrlon);
+        rasteredImageParams.put("raster_lr_lat", lrlat);
+        rasteredImageParams.put("raster_width", width);
+        rasteredImageParams.put("raster_height", height);
+        return new double[] {(ullon - rasterUllon) / lonPerPixel,
+            (rasterUllat - ullat) / latPerPixel,
+            (lrlon - ullon) / lonPerPixel, (ullat - lrlat) / latPerPixel};
+    }
+
+    /** Returns IM encoded with QUALITY, reporting the encode time on RES. */
+    private static byte[] encodeRaster(BufferedImage im, float quality, spark.Response res)
+            throws IOException {
+        RasterEncoder.Buffer encoded = encoder.encode(im, quality);
+        res.header("Server-Timing", "encode;dur=" + encoded.encodeMillis());
+        byte[] bytes = Arrays.copyOf(encoded.array(), encoded.size());
+        encoder.releaseBuffer();
+        return bytes;
+    }
+
+    /** Returns the Tile addressed by the path of REQ, halting if there is none. */
+    private static QuadTree.Tile requestTile(spark.Request req) {
+        try {
+            int depth = Integer.parseInt(req.params(":depth"));
+            int x = Integer.parseInt(req.params(":x"));
+            int y = Integer.parseInt(req.params(":y"));
+            if (quadTree.contains(depth, x, y)) {
+                return quadTree.getTile(depth, x, y);
+            }
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        halt(NOT_FOUND_RESPONSE, "No such tile.");
+        return null;
+    }
+
+    /**
+     * Returns the strong ETag of the encoded bytes of TILE: their CRC-32 and length.
+     * Tiles never change while the server runs, so each ETag is computed once.
+     */
+    private static String tileEtag(QuadTree.Tile tile) throws IOException {
+        String etag = tileEtags.get(tile.getImgName());
+        if (etag != null) {
+            return etag;
+        }
+        CRC32 crc = new CRC32();
+        long length;
+        if (tileSource instanceof TilePack) {
+            ByteBuffer bytes = packedTile(tile);
+            length = bytes.remaining();
+            crc.update(bytes);
+        } else {
+            byte[] bytes = Files.readAllBytes(tileFile(tile).toPath());
+            length = bytes.length;
+            crc.update(bytes);
+        }
+        etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length) + "\"";
+        tileEtags.put(tile.getImgName(), etag);
+        return etag;
+    }
+
+    /** Returns whether the If-None-Match header IFNONEMATCH lists ETAG. */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes the encoded bytes of TILE to OS, straight from the tile pack if there is one. */
+    private static void writeTileBytes(QuadTree.Tile tile, OutputStream os) throws IOException {
+        if (tileSource instanceof TilePack) {
+            Channels.newChannel(os).write(packedTile(tile));
+        } else {
+            Files.copy(tileFile(tile).toPath(), os);
+        }
+    }
+
+    /** Returns the bytes of TILE in the tile pack, halting if the pack does not hold it. */
+    private static ByteBuffer packedTile(QuadTree.Tile tile) {
+        ByteBuffer bytes = ((TilePack) tileSource).get(tile.getDepth(), tile.getX(), tile.getY());
+        if (bytes == null) {
+            halt(NOT_FOUND_RESPONSE, "No such tile.");
+        }
+        return bytes;
+    }
+
+    /** Returns the file of TILE in the IMG_ROOT folder, halting if it does not exist. */
+    private static File tileFile(QuadTree.Tile tile) {
+        File file = new File(IMG_ROOT,
+                QuadTree.fileName(tile.getDepth(), tile.getX(), tile.getY()));
+        if (!file.isFile()) {
+            halt(NOT_FOUND_RESPONSE, "No such tile.");
+        }
+        return file;
+    }
+
+    /** Returns the response header carrying raster parameter KEY, e.g. X-Raster-Ul-Lon. */
+    static String rasterHeader(String key) {
+        StringBuilder header = new StringBuilder("X");
+        for (String word : key.split("_")) {
+            header.append('-').append(Character.toUpperCase(word.charAt(0)))
+                    .append(word.substring(1));
+        }
+        return header.toString();
+    }
+
     /**
      * Check if the computed parameter map matches the required parameters on length.
      */
@@ -207,18 +764,44 @@ public class MapServer {
      * @param os Stream to be written to.
      */
     static void writeJpgToStream(BufferedImage im, OutputStream os) {
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(1.0F); // Highest quality of jpg possible
-        writer.setOutput(new MemoryCacheImageOutputStream(os));
         try {
-            writer.write(im);
+            BEST_JPG_ENCODER.write(im, os);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the quality parameter of REQ, or the server default if it has none. Halts the
+     * request unless the quality is a number from 0 to 1.
+     */
+    private static float requestQuality(spark.Request req) {
+        String quality = req.queryParams("quality");
+        if (quality == null) {
+            return encoder.getDefaultQuality();
+        }
+        float value;
+        try {
+            value = Float.parseFloat(quality);
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            return encoder.getDefaultQuality();
+        }
+        if (!(value >= 0 && value <= 1)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - quality must be between 0 and 1.");
+            return encoder.getDefaultQuality();
+        }
+        /* Formats without quality share the default's raster cache keys, and adding zero
+         * turns -0 into 0, so equal qualities share keys too. */
+        return encoder.usesQuality() ? value + 0f : encoder.getDefaultQuality();
+    }
+
+    /** Returns the crop parameter of REQ, or the server default if it has none. */
+    private static boolean requestCrop(spark.Request req) {
+        String crop = req.queryParams("crop");
+        return crop == null ? CROP_RASTERS : Boolean.parseBoolean(crop);
+    }
+
     /**
      * Handles raster API calls, queries for tiles and rasters the full image. <br>
      * <p>
@@ -253,8 +836,20 @@ public class MapServer {
     public static BufferedImage getMapRaster(Map<String, Double> inputParams,
                                              Map<String, Object> rasteredImageParams)
                                                         throws IOException {
-        BufferedImage rastedBuff;
+        TileSelection selection = selectTiles(inputParams, rasteredImageParams);
+        if (selection.isEmpty()) {
+            return null;
+        }
+        return compositor.composite(selection, MapServer::copyTile);
+    }
 
+    /**
+     * Queries the tiles of the raster described by INPUTPARAMS and puts the parameters of that
+     * raster in RASTEREDIMAGEPARAMS, as specified by getMapRaster.
+     * @return the selected tiles, empty if the query box misses the map.
+     */
+    private static TileSelection selectTiles(Map<String, Double> inputParams,
+                                             Map<String, Object> rasteredImageParams) {
         double ullon = inputParams.get("ullon");
         double ullat = inputParams.get("ullat");
         double lrlon = inputParams.get("lrlon");
@@ -263,62 +858,61 @@ public class MapServer {
 
         double ddpW = (lrlon - ullon) / W;
 
-        quadTree.getOverlapTiles().clear();
-
-        quadTree.intersectionQuery(quadTree.getRoot(), ullon, ullat, lrlon, lrlat, ddpW);
+        TileSelection selection = quadTree.query(ullon, ullat, lrlon, lrlat, ddpW);
+        if (selection.isEmpty()) {
+            rasteredImageParams.put("query_success", false);
+            return selection;
+        }
 
-        ArrayList<QuadTree.QNode> curr = quadTree.getOverlapTiles();
+        rasteredImageParams.put("raster_ul_lon", selection.getUllon());
+        rasteredImageParams.put("raster_ul_lat", selection.getUllat());
+        rasteredImageParams.put("raster_lr_lon", selection.getLrlon());
+        rasteredImageParams.put("raster_lr_lat", selection.getLrlat());
+        rasteredImageParams.put("raster_width", TILE_SIZE * selection.getGridWidth());
+        rasteredImageParams.put("raster_height", TILE_SIZE * selection.getGridHeight());
+        rasteredImageParams.put("depth", selection.getDepth());
+        rasteredImageParams.put("query_success", true);
+        return selection;
+    }
 
-        double xAxis = curr.get(0).getUllat();
-        int width = 1;
-        for (int i = 1; i < curr.size(); i++) {
-            if (xAxis == curr.get(i).getUllat()) {
-                width += 1;
-            } else {
-                break;
-            }
+    /**
+     * Copies the pixels of TILE into the raster PIXELS at OFFSET, from the raw tile store when
+     * it holds TILE and from the decoded tile cache otherwise.
+     */
+    private static void copyTile(QuadTree.Tile tile, int[] pixels, int offset, int stride)
+            throws IOException {
+        if (rawTiles != null && rawTiles.contains(tile)) {
+            rawTiles.copyTile(tile, pixels, offset, stride);
+        } else {
+            BufferedImage im = images.get(tile.getImgName(), name -> readTile(tile));
+            RasterCompositor.copyPixels(im, pixels, offset, stride);
         }
+    }
 
-        int rasterWidth = TILE_SIZE * width;
-        int rasterHeight = TILE_SIZE * (curr.size() / width);
-
-        double rasteredUllon = curr.get(curr.size() - width).getUllon();
-        double rasteredUllat = curr.get(curr.size() - width).getUllat();
-        double rasteredLrlon = curr.get(width - 1).getLrlon();
-        double rasteredLrlat = curr.get(width - 1).getLrlat();
-        int depth = curr.get(0).getDepth();
-
-        rasteredImageParams.put("raster_ul_lon", rasteredUllon);
-        rasteredImageParams.put("raster_ul_lat", rasteredUllat);
-        rasteredImageParams.put("raster_lr_lon", rasteredLrlon);
-        rasteredImageParams.put("raster_lr_lat", rasteredLrlat);
-        rasteredImageParams.put("raster_width", rasterWidth);
-        rasteredImageParams.put("raster_height", rasterHeight);
-        rasteredImageParams.put("depth", depth);
-
-        rastedBuff = new BufferedImage(rasterWidth, rasterHeight, BufferedImage.TYPE_INT_RGB);
-
-        int x = 0;
-        int y = rasterHeight - TILE_SIZE;
-        Graphics graph = rastedBuff.getGraphics();
-        for (QuadTree.QNode img : curr) {
-            BufferedImage bi;
-            if (images.containsKey(img.getImgName())) {
-                bi = (BufferedImage) images.get(img.getImgName());
-            } else {
-                bi = ImageIO.read(new File(img.getImgName()));
-                images.put(img.getImgName(), bi);
-            }
-            graph.drawImage(bi, x, y, null);
-            x += TILE_SIZE;
-            if (x > rastedBuff.getWidth() - TILE_SIZE) {
-                x = 0;
-                y -= TILE_SIZE;
-            }
+    /**
+     * Decodes TILE from the tile source, converted for direct pixel copies and scaled to
+     * TILE_SIZE pixels if the tile image has another size.
+     */
+    private static BufferedImage readTile(QuadTree.Tile tile) throws IOException {
+        return RasterCompositor.toTile(tileSource.read(tile), TILE_SIZE);
+    }
+
+    /** Decodes TILE from its own file in the IMG_ROOT folder. */
+    private static BufferedImage readTileFile(QuadTree.Tile tile) throws IOException {
+        File file = new File(IMG_ROOT,
+                QuadTree.fileName(tile.getDepth(), tile.getX(), tile.getY()));
+        BufferedImage im = ImageIO.read(file);
+        if (im == null) {
+            throw new IOException("Unreadable tile " + file);
         }
-        rasteredImageParams.put("query_success", true);
+        return im;
+    }
 
-        return rastedBuff;
+    /** Returns number of bytes used by the pixels of IM. */
+    static long imageBytes(BufferedImage im) {
+        DataBuffer buffer = im.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / Byte.SIZE;
     }
 
     /**
@@ -327,6 +921,8 @@ public class MapServer {
      * The route should start from the closest node to the start point and end at the closest node
      * to the endpoint. Distance is defined as the euclidean distance between two points
      * (lon1, lat1) and (lon2, lat2).
+     * With SNAP_TO_ROADS the route runs between the nearest points on roads instead, and
+     * only the nodes between them are returned.
      * If <code>im</code> is not null, draw the route onto the image by drawing lines in between
      * adjacent points in the route. The lines should be drawn using ROUTE_STROKE_COLOR,
      * ROUTE_STROKE_WIDTH_PX, BasicStroke.CAP_ROUND and BasicStroke.JOIN_ROUND.
@@ -340,75 +936,125 @@ public class MapServer {
                                               Map<String, Object> rasterImageParams,
                                               BufferedImage im) {
 
-        ArrayList<Long> route = new ArrayList<>();
+        RouteEnds ends = routeEnds(routeParams);
+        List<Long> route = routeNodeIds(ends);
 
-        double startLon = routeParams.get("start_lon");
-        double startLat = routeParams.get("start_lat");
-        double endLon = routeParams.get("end_lon");
-        double endLat = routeParams.get("end_lat");
+        if (im != null) {
+            double[][] points = routePoints(ends);
+            Graphics2D graphics2D = im.createGraphics();
+            RouteOverlay.draw(graphics2D, points[0], points[1],
+                    (double) rasterImageParams.get("raster_ul_lon"),
+                    (double) rasterImageParams.get("raster_ul_lat"),
+                    (double) rasterImageParams.get("raster_lr_lon"),
+                    (double) rasterImageParams.get("raster_lr_lat"),
+                    (int) rasterImageParams.get("raster_width"),
+                    (int) rasterImageParams.get("raster_height"));
+            graphics2D.dispose();
+        }
 
-        GraphNode startNode = nodeList.get(findClosest(startLon, startLat));
-        GraphNode endNode = nodeList.get(findClosest(endLon, endLat));
+        return route;
+    }
 
-        PriorityQueue<RouteNodeWrapper> routePriority = new PriorityQueue<>((o1, o2) -> {
-            return Double.compare(o1.getPriority(), o2.getPriority());
+    /**
+     * Returns the shortest route from node index SOURCE to node index TARGET, from the route
+     * cache if it was searched before.
+     */
+    private static RouteResult route(int source, int target) {
+        return cachedRoute(routes, (long) source << 32 | target & 0xFFFFFFFFL, key -> {
+            RouteResult result = router.route(source, target);
+            routesSearched.incrementAndGet();
+            nodesSettled.addAndGet(result.getSettled());
+            return result;
         });
+    }
 
-        HashSet<Long> visited = new HashSet<>();
-
-        RouteNodeWrapper routeWay = new RouteNodeWrapper(startNode);
+    /**
+     * Returns the shortest route between the points on roads ENDS, from the route cache if it
+     * was searched before.
+     */
+    private static SnappedRoute snappedRoute(RouteEnds ends) {
+        return cachedRoute(snappedRoutes, ends.key(), key -> {
+            SnappedRoute route = SnappedRoute.between(graph, router, ends.startSnap, ends.endSnap);
+            routesSearched.incrementAndGet();
+            nodesSettled.addAndGet(route.getSettled());
+            return route;
+        });
+    }
 
-        while (routeWay.getCurrentNode().getId() != endNode.getId()) {
-            visited.add(routeWay.getCurrentNode().getId());
-            for (GraphNode neighbor : routeWay.getCurrentNode().getNeighbors()) {
-                RouteNodeWrapper closestNeighbor;
-                closestNeighbor = new RouteNodeWrapper(routeWay, neighbor, endNode);
-                if (!visited.contains(closestNeighbor.getCurrentNode().getId())) {
-                    routePriority.add(closestNeighbor);
-                }
-            }
-            routeWay = routePriority.poll();
-        }
-        route.add(routeWay.getCurrentNode().getId());
-        RouteNodeWrapper before = routeWay.getPrevious();
-        while (before != null) {
-            route.add(before.getCurrentNode().getId());
-            before = before.getPrevious();
+    /**
+     * Returns the route cached in CACHE for KEY, searching it with SEARCH on a miss.
+     * Concurrent misses on the same route wait for one search.
+     */
+    private static <K, V> V cachedRoute(ConcurrentLruCache<K, V> cache, K key,
+                                        ConcurrentLruCache.Loader<K, V> search) {
+        try {
+            return cache.get(key, search);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        Collections.reverse(route);
-
-        if (im != null) {
-
-            double ullon = (double) rasterImageParams.get("raster_ul_lon");
-            double ullat = (double) rasterImageParams.get("raster_ul_lat");
-            double lrlon = (double) rasterImageParams.get("raster_lr_lon");
-            double lrlat = (double) rasterImageParams.get("raster_lr_lat");
-            int W = (int) rasterImageParams.get("raster_width");
-            int H = (int) rasterImageParams.get("raster_height");
-
-            Graphics2D graphics2D = im.createGraphics();
-            graphics2D.setColor(MapServer.ROUTE_STROKE_COLOR);
-            graphics2D.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-
-            GraphNode curr = nodeList.get(route.get(0));
-
-            for (int i = 1; i < route.size(); i++) {
+    /** Returns the OSM ids of the graph nodes PATH. */
+    private static List<Long> nodeIds(int[] path) {
+        List<Long> ids = new ArrayList<>(path.length);
+        for (int node : path) {
+            ids.add(graph.id(node));
+        }
+        return ids;
+    }
 
-                GraphNode next = nodeList.get(route.get(i));
+    /**
+     * Returns where the route of ROUTEPARAMS starts and ends: the nearest nodes, or the
+     * nearest points on road segments when snapping to roads.
+     */
+    private static RouteEnds routeEnds(Map<String, Double> routeParams) {
+        double startLon = routeParams.get("start_lon"), startLat = routeParams.get("start_lat");
+        double endLon = routeParams.get("end_lon"), endLat = routeParams.get("end_lat");
+        if (SNAP_TO_ROADS) {
+            return new RouteEnds(edgeIndex.nearest(startLon, startLat),
+                    edgeIndex.nearest(endLon, endLat));
+        }
+        return new RouteEnds(nodeIndex.nearest(startLon, startLat),
+                nodeIndex.nearest(endLon, endLat));
+    }
 
-                int xlon = getLongitude(ullon, lrlon, W, curr.getLongitude());
-                int xlat = getLatitude(ullat, lrlat, H, curr.getLatitude());
-                int ylon = getLongitude(ullon, lrlon, W, next.getLongitude());
-                int ylat = getLatitude(ullat, lrlat, H, next.getLatitude());
+    /** Returns the OSM ids of the nodes of the shortest route between ENDS. */
+    private static List<Long> routeNodeIds(RouteEnds ends) {
+        if (ends.startSnap != null) {
+            return nodeIds(snappedRoute(ends).getNodes());
+        }
+        return nodeIds(route(ends.start, ends.end).getPath());
+    }
 
-                graphics2D.drawLine(xlon, xlat, ylon, ylat);
-                curr = next;
-            }
+    /** Returns the longitudes and latitudes of the shortest route between ENDS. */
+    private static double[][] routePoints(RouteEnds ends) {
+        if (ends.startSnap != null) {
+            SnappedRoute route = snappedRoute(ends);
+            return new double[][] {route.getLons(), route.getLats()};
+        }
+        int[] path = route(ends.start, ends.end).getPath();
+        double[][] points = new double[2][path.length];
+        for (int i = 0; i < path.length; i++) {
+            points[0][i] = graph.lon(path[i]);
+            points[1][i] = graph.lat(path[i]);
         }
+        return points;
+    }
 
-        return route;
+    /**
+     * Returns the overlay of the shortest route between ENDS on the raster described by
+     * RASTERIMAGEPARAMS.
+     */
+    private static RouteOverlay routeOverlay(RouteEnds ends,
+                                             Map<String, Object> rasterImageParams) {
+        double[][] points = routePoints(ends);
+        return RouteOverlay.render(points[0], points[1],
+                (double) rasterImageParams.get("raster_ul_lon"),
+                (double) rasterImageParams.get("raster_ul_lat"),
+                (double) rasterImageParams.get("raster_lr_lon"),
+                (double) rasterImageParams.get("raster_lr_lat"),
+                (int) rasterImageParams.get("raster_width"),
+                (int) rasterImageParams.get("raster_height"));
     }
 
     /** Get Longitude for node in BufferedImage coordinates. */
@@ -474,17 +1120,41 @@ public class MapServer {
 
     /** Returns the id of closest node to coordinates. */
     public static Long findClosest(double lon, double lat) {
-        long random = 53080628;
-        GraphNode closest;
-        GraphNode currClosest = nodeList.get(random);
-        for (Map.Entry<Long, GraphNode> entry : nodeList.entrySet()) {
-            closest = entry.getValue();
-            if (closest.distanceTo(lon, lat) < currClosest.distanceTo(lon, lat)) {
-                currClosest = closest;
+        return graph.id(nodeIndex.nearest(lon, lat));
+    }
+
+    /** Where a route starts and ends: two nodes, or two points on roads when snapping. */
+    private static class RouteEnds {
+
+        /** Indices of the start and end nodes, -1 for points on roads. */
+        private final int start, end;
+        /** Start and end points on roads, null for nodes. */
+        private final EdgeRTree.Snap startSnap, endSnap;
+
+        /** RouteEnds constructor for a route from node START to node END. */
+        RouteEnds(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.startSnap = null;
+            this.endSnap = null;
+        }
+
+        /** RouteEnds constructor for a route between the points on roads START and END. */
+        RouteEnds(EdgeRTree.Snap start, EdgeRTree.Snap end) {
+            this.start = -1;
+            this.end = -1;
+            this.startSnap = start;
+            this.endSnap = end;
+        }
+
+        /** Returns a key naming the route by where it starts and ends. */
+        String key() {
+            if (startSnap != null) {
+                return startSnap.getEdge() + ":" + startSnap.getFraction() + ">"
+                        + endSnap.getEdge() + ":" + endSnap.getFraction();
             }
+            return graph.id(start) + ">" + graph.id(end);
         }
-        return currClosest.getId();
     }
 
-
 }
@@ -1,143 +1,203 @@
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 
 /**
  * Quad Tree class
  * Created by LuisAlba on 7/13/16.
+ * Tiles are addressed arithmetically by (depth, x, y) instead of being stored as a tree of
+ * nodes, where x counts columns from the west and y counts rows from the north.
  */
 public class QuadTree {
 
     /** Strings to help with imageNaming. */
     private static final String IMG = "img/";
     private static final String PNG = ".png";
+    /** Number of pixels on each side of a Tile. */
+    private static final int TILE_SIZE = 256;
+    /** Depth of the deepest Tiles scraped into the img/ folder. */
+    public static final int DEFAULT_MAX_DEPTH = 7;
 
-    /** The root of current QuadTree. */
-    private QNode root;
-    /** ArrayList containing name of Tiles that overlap Query. */
-    private ArrayList<QNode> overlapTiles;
+    /** Bounding box of the root Tile. */
+    private final double ullon, ullat, lrlon, lrlat;
+    /** Depth of the deepest Tiles available. */
+    private final int maxDepth;
 
     /** QuadTree Constructor. */
     public QuadTree(double ullon, double ullat, double lrlon, double lrlat) {
+        this(ullon, ullat, lrlon, lrlat, DEFAULT_MAX_DEPTH);
+    }
 
-        overlapTiles = new ArrayList<QNode>();
-        root = new QNode("img/root.png", null,  ullon, ullat, lrlon, lrlat, 0);
-
-        root.setNW(root.makeChildren("1", root, ullon, ullat, (ullon + lrlon) / 2,
-                        (ullat + lrlat) / 2, 1));
+    /** QuadTree Constructor for a tile pyramid MAXDEPTH levels below the root. */
+    public QuadTree(double ullon, double ullat, double lrlon, double lrlat, int maxDepth) {
+        if (maxDepth < 0 || maxDepth > 30) {
+            throw new IllegalArgumentException("Unsupported QuadTree depth " + maxDepth);
+        }
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+        this.maxDepth = maxDepth;
+    }
 
-        root.setNE(root.makeChildren("2", root, (ullon + lrlon) / 2, ullat, lrlon,
-                        (ullat + lrlat) / 2, 1));
+    /** Returns depth of the deepest Tiles. */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
 
-        root.setSE(root.makeChildren("4", root, (ullon + lrlon) / 2, (ullat + lrlat) / 2,
-                        lrlon, lrlat, 1));
+    /** Returns root Tile of QuadTree. */
+    public Tile getRoot() {
+        return getTile(0, 0, 0);
+    }
 
-        root.setSW(root.makeChildren("3", root, ullon, (ullat + lrlat) / 2,
-                        (ullon + lrlon) / 2, lrlat, 1));
+    /** Returns the Tile at column X and row Y of level DEPTH. */
+    public Tile getTile(int depth, int x, int y) {
+        if (!contains(depth, x, y)) {
+            throw new IllegalArgumentException("No tile " + depth + "/" + x + "/" + y);
+        }
+        double tileLon = (lrlon - ullon) / (1 << depth);
+        double tileLat = (ullat - lrlat) / (1 << depth);
+        return new Tile(depth, x, y, ullon + x * tileLon, ullat - y * tileLat,
+                ullon + (x + 1) * tileLon, ullat - (y + 1) * tileLat);
     }
 
-    /** Returns Node Root of QuadTree. */
-    public QNode getRoot() {
-        return root;
+    /** Returns whether (DEPTH, X, Y) addresses a Tile of this QuadTree. */
+    public boolean contains(int depth, int x, int y) {
+        if (depth < 0 || depth > maxDepth) {
+            return false;
+        }
+        int n = 1 << depth;
+        return x >= 0 && x < n && y >= 0 && y < n;
     }
 
-    /** Returns ArrayList of QNodes that overlap. */
-    public ArrayList<QNode> getOverlapTiles() {
-        orderTiles();
-        return overlapTiles;
+    /** Returns the shallowest depth whose longitudinal distance per pixel is at most DPP. */
+    public int depthFor(double dpp) {
+        double tileDPP = (lrlon - ullon) / TILE_SIZE;
+        int depth = 0;
+        while (tileDPP > dpp && depth < maxDepth) {
+            tileDPP /= 2;
+            depth += 1;
+        }
+        return depth;
     }
 
-    /** Adds all Tiles that overlap the query window. */
-    public void intersectionQuery(QNode curr, double queryUllon, double queryUllat,
-                                  double queryLrlon, double queryLrlat, double dpp) {
-
-        double nodeDPP = (curr.getLrlon() - curr.getUllon()) / 256;
-
-        if (checkOverlap(curr, queryUllon, queryUllat, queryLrlon, queryLrlat)) {
-
-            if (nodeDPP <= dpp || curr.isLeaf()) {
-                if (!overlapTiles.contains(curr)) {
-                    overlapTiles.add(curr);
-                }
-            } else {
-                intersectionQuery(curr.getNW(), queryUllon, queryUllat,
-                        queryLrlon, queryLrlat, dpp);
-                intersectionQuery(curr.getNE(), queryUllon, queryUllat,
-                        queryLrlon, queryLrlat, dpp);
-                intersectionQuery(curr.getSE(), queryUllon, queryUllat,
-                        queryLrlon, queryLrlat, dpp);
-                intersectionQuery(curr.getSW(), queryUllon, queryUllat,
-                        queryLrlon, queryLrlat, dpp);
+    /**
+     * Returns a new TileSelection of all Tiles that overlap the query window, using the
+     * shallowest Tiles whose longitudinal distance per pixel is at most DPP.
+     * Depth and the column and row ranges are computed directly from the query box, so a
+     * query costs time proportional to the number of Tiles returned.
+     */
+    public TileSelection query(double queryUllon, double queryUllat,
+                               double queryLrlon, double queryLrlat, double dpp) {
+
+        if (queryUllon > lrlon || queryLrlon < ullon
+                || queryUllat < lrlat || queryLrlat > ullat) {
+            return TileSelection.empty();
+        }
+
+        int depth = depthFor(dpp);
+        int n = 1 << depth;
+        double tileLon = (lrlon - ullon) / n;
+        double tileLat = (ullat - lrlat) / n;
+
+        /* A Tile overlaps when it touches the query box, edges included. */
+        int minX = clamp((int) Math.ceil((queryUllon - ullon) / tileLon - 1), n);
+        int maxX = clamp((int) Math.floor((queryLrlon - ullon) / tileLon), n);
+        int minY = clamp((int) Math.ceil((ullat - queryUllat) / tileLat - 1), n);
+        int maxY = clamp((int) Math.floor((ullat - queryLrlat) / tileLat), n);
+        /* An inverted query box covers no Tiles. */
+        if (minX > maxX || minY > maxY) {
+            return TileSelection.empty();
+        }
+
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+        ArrayList<Tile> tiles = new ArrayList<>(width * height);
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                tiles.add(getTile(depth, x, y));
             }
         }
-    }
 
-    /** Returns boolean on whether a Tile overlaps with query. */
-    private boolean checkOverlap(QNode curr, double queryUllon, double queryUllat,
-                                    double queryLrlon, double queryLrlat) {
+        Tile upperLeft = tiles.get(0);
+        Tile lowerRight = tiles.get(tiles.size() - 1);
+        return new TileSelection(tiles, width, height, depth,
+                upperLeft.getUllon(), upperLeft.getUllat(),
+                lowerRight.getLrlon(), lowerRight.getLrlat());
+    }
 
-        return queryUllon <= curr.getLrlon() && queryLrlon >= curr.getUllon()
-                && queryUllat >= curr.getLrlat() && queryLrlat <= curr.getUllat();
+    /** Returns I clamped to a valid Tile index on a level N Tiles wide. */
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
     }
 
-    /** Returns an ArrayList that is ordered by tile coordinates starting
-     *  from bottom left tile to top right. */
-    private void orderTiles() {
-        Collections.sort(overlapTiles, Comparator.comparing(QNode::getUllat)
-                .thenComparing(QNode::getUllon));
+    /**
+     * Returns the image name of the Tile at (DEPTH, X, Y). Each digit of the name picks a
+     * quadrant one level deeper: 1 is NorthWest, 2 NorthEast, 3 SouthWest and 4 SouthEast.
+     */
+    public static String imgName(int depth, int x, int y) {
+        return IMG + fileName(depth, x, y);
     }
 
-    /** Node class of the QuadTree. */
-    public class QNode {
+    /** Returns the image name of the Tile at (DEPTH, X, Y) inside the img/ folder. */
+    public static String fileName(int depth, int x, int y) {
+        if (depth == 0) {
+            return "root" + PNG;
+        }
+        return path(depth, x, y) + PNG;
+    }
 
-        /** String representation of the image name. */
-        private String imgName;
+    /** Returns the quadrant digits of the Tile at (DEPTH, X, Y), empty for the root. */
+    public static String path(int depth, int x, int y) {
+        char[] digits = new char[depth];
+        for (int i = 0; i < depth; i++) {
+            int shift = depth - 1 - i;
+            digits[i] = (char) ('1' + ((x >> shift) & 1) + 2 * ((y >> shift) & 1));
+        }
+        return new String(digits);
+    }
 
-        /** Double representation of the UpperLeftLongitude,
-         * UpperLeftLatitude LowerLeftLongitude, and LowerRightLatitude. */
-        private double ullon, ullat, lrlon, lrlat;
+    /** Immutable Tile of the QuadTree. */
+    public static class Tile {
 
-        /** Children Nodes in NorthEast, NorthWest, SouthWest, and
-         *  SouthEast. */
-        private QNode NE, NW, SW, SE;
+        /** Level of the Tile, 0 being the root. */
+        private final int depth;
 
-        /** Parent Qnode. */
-        private QNode parent;
+        /** Column and row of the Tile on its level. */
+        private final int x, y;
 
-        /** Integer representing the length of numbers of image. */
-        private int depth;
+        /** Double representation of the UpperLeftLongitude,
+         * UpperLeftLatitude LowerLeftLongitude, and LowerRightLatitude. */
+        private final double ullon, ullat, lrlon, lrlat;
 
-        /** Node constructor. */
-        private QNode(String image, QNode parent, double ullon, double ullat, double lrlon,
-                                        double lrat, int depth) {
-            this.imgName = image;
-            this.parent = parent;
+        /** Tile constructor. */
+        private Tile(int depth, int x, int y, double ullon, double ullat,
+                     double lrlon, double lrlat) {
+            this.depth = depth;
+            this.x = x;
+            this.y = y;
             this.ullon = ullon;
             this.ullat = ullat;
             this.lrlon = lrlon;
-            this.lrlat = lrat;
-            this.depth = depth;
+            this.lrlat = lrlat;
         }
 
-        /** Returns a TILE with its four children. */
-        private QNode makeChildren(String name, QNode curr, double upX, double upY,
-                                   double downX, double downY, int deep) {
-
-            QNode tile = new QNode(IMG + name + PNG, curr, upX, upY, downX, downY, deep);
-            if (deep < 7) {
-                tile.setNW(makeChildren(name + "1", tile,  upX, upY, (upX + downX) / 2,
-                                        (upY + downY) / 2, deep + 1));
+        /** Returns ImageName. */
+        public String getImgName() {
+            return imgName(depth, x, y);
+        }
 
-                tile.setNE(makeChildren(name + "2", tile, (upX + downX) / 2, upY, downX,
-                                        (upY + downY) / 2, deep + 1));
+        /** Returns depth of Tile. */
+        public int getDepth() {
+            return depth;
+        }
 
-                tile.setSE(makeChildren(name + "4", tile, (upX + downX) / 2,
-                                        (upY + downY) / 2, downX, downY, deep + 1));
+        /** Returns column of Tile. */
+        public int getX() {
+            return x;
+        }
 
-                tile.setSW(makeChildren(name + "3", tile, upX, (upY + downY) / 2,
-                                        (upX + downX) / 2, downY, deep + 1));
-            }
-            return tile;
+        /** Returns row of Tile. */
+        public int getY() {
+            return y;
         }
 
         /** Returns UpperLeftLongitude. */
@@ -145,16 +205,6 @@ public class QuadTree {
             return ullon;
         }
 
-        /** Returns whether QNode is a leaf. */
-        public boolean isLeaf() {
-            return NE == null && NW == null && SW == null && SE == null;
-        }
-
-        /** Returns ImageName. */
-        public String getImgName() {
-            return imgName;
-        }
-
         /** Returns UpperLeftLatitude. */
         public double getUllat() {
             return ullat;
@@ -170,51 +220,24 @@ public class QuadTree {
             return lrlat;
         }
 
-        /** Returns Node in NorthEast. */
-        public QNode getNE() {
-            return NE;
-        }
-
-        /** Returns Node in NorthWest. */
-        public QNode getNW() {
-            return NW;
-        }
-
-        /** Returns Node in SouthWest. */
-        public QNode getSW() {
-            return SW;
-        }
-
-        /** Returns Node in SouthEast. */
-        public QNode getSE() {
-            return SE;
-        }
-
-        /** Returns depth of Node. */
-        public int getDepth() {
-            return depth;
-        }
-
-        /** Sets current QNode's NE to NODE. */
-        public void setNE(QNode node) {
-            this.NE = node;
-        }
-
-        /** Sets current QNode's NW to NODE. */
-        public void setNW(QNode node) {
-            this.NW = node;
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) o;
+            return depth == other.depth && x == other.x && y == other.y;
         }
 
-        /** Sets current QNode's SW to NODE. */
-        public void setSW(QNode node) {
-            this.SW = node;
+        @Override
+        public int hashCode() {
+            return (depth * 31 + x) * 31 + y;
         }
 
-        /** Sets current QNode's SE to NODE. */
-        public void setSE(QNode node) {
-            this.SE = node;
+        @Override
+        public String toString() {
+            return depth + "/" + x + "/" + y;
         }
-
     }
 
 }
@@ -0,0 +1,233 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Composites the tiles of a TileSelection into a single raster image.
+ * With more than one thread, missing tiles are decoded in parallel on a bounded ForkJoinPool
+ * and each tile is drawn by its own task. Every tile covers a disjoint TILE_SIZE square of the
+ * output, so the tasks never write the same pixels.
+ * Tiles converted with {@link #toIntRgb(BufferedImage)} are copied row by row straight from
+ * their int pixel array into the raster's, skipping Java2D blits and colour conversion.
+ */
+public class RasterCompositor {
+
+    /** Reads the decoded image of a tile, typically through a cache. */
+    public interface TileReader {
+        BufferedImage read(QuadTree.Tile tile) throws IOException;
+    }
+
+    /** Copies the pixels of a tile straight into a packed int raster. */
+    public interface PixelSource {
+        /** Copies row r of TILE to PIXELS starting at OFFSET + r * STRIDE. */
+        void copyTile(QuadTree.Tile tile, int[] pixels, int offset, int stride)
+                throws IOException;
+    }
+
+    /** Composites the grid cell at column COL and row ROW. */
+    private interface CellTask {
+        void run(int col, int row) throws IOException;
+    }
+
+    /** Each tile is TILE_SIZE by TILE_SIZE pixels. */
+    private final int tileSize;
+    /** Pool for parallel compositing, null when compositing sequentially. */
+    private final ForkJoinPool pool;
+
+    /** RasterCompositor constructor using at most THREADS threads per raster. */
+    public RasterCompositor(int tileSize, int threads) {
+        this.tileSize = tileSize;
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /** Returns whether tiles are composited in parallel. */
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /** Returns a new TYPE_INT_RGB image of every tile in SELECTION read through READER. */
+    public BufferedImage composite(TileSelection selection, TileReader reader)
+            throws IOException {
+        BufferedImage raster = newRaster(selection);
+        forEachCell(selection, (col, row) ->
+                draw(raster, reader.read(selection.getTile(col, row)), col, row));
+        return raster;
+    }
+
+    /** Returns a new TYPE_INT_RGB image of every tile in SELECTION copied from SOURCE. */
+    public BufferedImage composite(TileSelection selection, PixelSource source)
+            throws IOException {
+        BufferedImage raster = newRaster(selection);
+        int[] pixels = ((DataBufferInt) raster.getRaster().getDataBuffer()).getData();
+        int stride = stride(raster);
+        forEachCell(selection, (col, row) -> source.copyTile(selection.getTile(col, row),
+                pixels, row * tileSize * stride + col * tileSize, stride));
+        return raster;
+    }
+
+    /** Returns a blank raster large enough for every tile of SELECTION. */
+    private BufferedImage newRaster(TileSelection selection) {
+        return new BufferedImage(tileSize * selection.getGridWidth(),
+                tileSize * selection.getGridHeight(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    /** Runs CELL on every grid cell of SELECTION, in parallel when there is a pool. */
+    private void forEachCell(TileSelection selection, CellTask cell) throws IOException {
+        if (pool == null || selection.getTiles().size() < 2) {
+            for (int row = 0; row < selection.getGridHeight(); row++) {
+                for (int col = 0; col < selection.getGridWidth(); col++) {
+                    cell.run(col, row);
+                }
+            }
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(selection.getTiles().size());
+        for (int row = 0; row < selection.getGridHeight(); row++) {
+            for (int col = 0; col < selection.getGridWidth(); col++) {
+                final int c = col, r = row;
+                tasks.add(() -> {
+                    cell.run(c, r);
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> task : pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while compositing raster", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /** Draws TILE into the grid cell at column COL and row ROW of RASTER. */
+    private void draw(BufferedImage raster, BufferedImage tile, int col, int row) {
+        int x = col * tileSize;
+        int y = row * tileSize;
+        if (isPackedIntRgb(tile)) {
+            copyRows(tile, raster, x, y);
+        } else {
+            Graphics graph = raster.createGraphics();
+            graph.drawImage(tile, x, y, null);
+            graph.dispose();
+        }
+    }
+
+    /** Copies every row of the packed TILE into the packed RASTER at (X, Y). */
+    static void copyRows(BufferedImage tile, BufferedImage raster, int x, int y) {
+        int[] dst = ((DataBufferInt) raster.getRaster().getDataBuffer()).getData();
+        int dstStride = stride(raster);
+        int width = Math.min(tile.getWidth(), raster.getWidth() - x);
+        int height = Math.min(tile.getHeight(), raster.getHeight() - y);
+        copyPixels(tile, width, height, dst, y * dstStride + x, dstStride);
+    }
+
+    /**
+     * Copies every row of the packed TILE to PIXELS starting at OFFSET + row * STRIDE.
+     * Throws IllegalArgumentException if a row is wider than STRIDE or the rows run past PIXELS.
+     */
+    public static void copyPixels(BufferedImage tile, int[] pixels, int offset, int stride) {
+        int width = tile.getWidth(), height = tile.getHeight();
+        if (width > stride || offset < 0
+                || offset + (long) (height - 1) * stride + width > pixels.length) {
+            throw new IllegalArgumentException("Tile of " + width + "x" + height
+                    + " pixels does not fit rows of " + stride + " pixels");
+        }
+        copyPixels(tile, width, height, pixels, offset, stride);
+    }
+
+    /** Copies the upper left WIDTH by HEIGHT pixels of the packed TILE to PIXELS. */
+    private static void copyPixels(BufferedImage tile, int width, int height,
+                                   int[] pixels, int offset, int stride) {
+        int[] src = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        int srcStride = stride(tile);
+        for (int i = 0; i < height; i++) {
+            System.arraycopy(src, i * srcStride, pixels, offset + i * stride, width);
+        }
+    }
+
+    /** Returns whether IM stores its pixels as one packed int per pixel from index 0. */
+    static boolean isPackedIntRgb(BufferedImage im) {
+        return im.getType() == BufferedImage.TYPE_INT_RGB
+                && im.getRaster().getDataBuffer() instanceof DataBufferInt
+                && im.getRaster().getDataBuffer().getOffset() == 0
+                && im.getRaster().getSampleModelTranslateX() == 0
+                && im.getRaster().getSampleModelTranslateY() == 0
+                && im.getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
+
+    /** Returns number of ints between the starts of two rows of the packed IM. */
+    private static int stride(BufferedImage im) {
+        return ((SinglePixelPackedSampleModel) im.getSampleModel()).getScanlineStride();
+    }
+
+    /** Returns IM itself if it is already packed TYPE_INT_RGB, or a converted copy. */
+    public static BufferedImage toIntRgb(BufferedImage im) {
+        if (isPackedIntRgb(im)) {
+            return im;
+        }
+        BufferedImage converted = new BufferedImage(im.getWidth(), im.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graph = converted.createGraphics();
+        graph.drawImage(im, 0, 0, null);
+        graph.dispose();
+        return converted;
+    }
+
+    /**
+     * Returns IM as a packed TYPE_INT_RGB tile of TILESIZE by TILESIZE pixels, bilinearly
+     * scaled if it has another size.
+     */
+    public static BufferedImage toTile(BufferedImage im, int tileSize) {
+        if (im.getWidth() == tileSize && im.getHeight() == tileSize) {
+            return toIntRgb(im);
+        }
+        return resample(im, 0, 0, im.getWidth(), im.getHeight(), tileSize, tileSize);
+    }
+
+    /**
+     * Returns a new TYPE_INT_RGB image WIDTH by HEIGHT pixels showing the region of RASTER
+     * that starts at (X, Y) and is REGIONWIDTH by REGIONHEIGHT pixels, bilinearly resampled.
+     * The region may start and end between pixels.
+     */
+    public static BufferedImage resample(BufferedImage raster, double x, double y,
+                                         double regionWidth, double regionHeight,
+                                         int width, int height) {
+        BufferedImage resampled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = AffineTransform.getScaleInstance(
+                width / regionWidth, height / regionHeight);
+        transform.translate(-x, -y);
+        Graphics2D graph = resampled.createGraphics();
+        graph.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graph.drawImage(raster, transform, null);
+        graph.dispose();
+        return resampled;
+    }
+
+    /** Stops the threads of the pool. */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes rasters with a pool of ImageWriters and a per thread output buffer for the chosen
+ * format, so encoding allocates neither once warmed up.
+ * <p>
+ *     Writers are borrowed from the pool for one encode. Writers returned while the pool is
+ *     full are disposed, so the pool never holds more than MAX_IDLE_WRITERS. Buffers that
+ *     grew past MAX_RETAINED_BUFFER_BYTES for an unusually large raster are dropped once
+ *     the raster has been written out.
+ * </p>
+ * <p>
+ *     "jpg" is the default format. "bmp" is an alternate encoder that skips compression
+ *     entirely, for raster nodes whose CPU is scarcer than their bandwidth.
+ * </p>
+ */
+public class RasterEncoder {
+
+    /** Formats whose ImageWriter is used uncompressed and ignores quality. */
+    private static final String BMP = "bmp";
+    /** Largest number of idle writers kept for reuse. */
+    private static final int MAX_IDLE_WRITERS = 16;
+    /** Largest output buffer kept for the next encode on a thread. */
+    private static final int MAX_RETAINED_BUFFER_BYTES = 8 << 20;
+
+    /** Informal name of the image format, as understood by ImageIO. */
+    private final String format;
+    /** Compression quality used when a request does not give one, from 0 to 1. */
+    private final float defaultQuality;
+    /** Idle writers. */
+    private final BlockingQueue<ImageWriter> writers;
+    /** Output buffer of each thread. */
+    private final ThreadLocal<Buffer> buffers;
+    /** Number of images encoded and nanoseconds spent encoding them. */
+    private final AtomicLong encodes, encodeNanos;
+
+    /** RasterEncoder constructor for FORMAT with DEFAULTQUALITY. */
+    public RasterEncoder(String format, float defaultQuality) {
+        Iterator<ImageWriter> available = ImageIO.getImageWritersByFormatName(format);
+        if (!available.hasNext()) {
+            throw new IllegalArgumentException("No image writer for " + format);
+        }
+        this.format = format;
+        this.defaultQuality = defaultQuality;
+        this.writers = new ArrayBlockingQueue<>(MAX_IDLE_WRITERS);
+        this.buffers = ThreadLocal.withInitial(Buffer::new);
+        this.encodes = new AtomicLong();
+        this.encodeNanos = new AtomicLong();
+    }
+
+    /** Returns the MIME type of encoded images. */
+    public String contentType() {
+        return BMP.equals(format) ? "image/bmp" : "image/jpeg";
+    }
+
+    /** Returns whether the quality passed to encode changes the encoded image. */
+    public boolean usesQuality() {
+        return !BMP.equals(format);
+    }
+
+    /** Returns the quality used when a request does not give one. */
+    public float getDefaultQuality() {
+        return defaultQuality;
+    }
+
+    /**
+     * Encodes IM with QUALITY into the buffer of the current thread and returns that buffer.
+     * The buffer is reused by the next encode on this thread, so write it out before then,
+     * then call releaseBuffer.
+     */
+    public Buffer encode(BufferedImage im, float quality) throws IOException {
+        long start = System.nanoTime();
+        Buffer buffer = buffers.get();
+        buffer.reset();
+        ImageWriter writer = writers.poll();
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName(format).next();
+        }
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed() && usesQuality()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+            }
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(buffer)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(im, null, null), param);
+            }
+        } finally {
+            writer.reset();
+            if (!writers.offer(writer)) {
+                writer.dispose();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        buffer.encodeNanos = nanos;
+        encodes.incrementAndGet();
+        encodeNanos.addAndGet(nanos);
+        return buffer;
+    }
+
+    /** Drops the buffer of the current thread if it grew past MAX_RETAINED_BUFFER_BYTES. */
+    public void releaseBuffer() {
+        if (buffers.get().array().length > MAX_RETAINED_BUFFER_BYTES) {
+            buffers.remove();
+        }
+    }
+
+    /** Encodes IM with the default quality and writes it to OS. */
+    public void write(BufferedImage im, OutputStream os) throws IOException {
+        try {
+            encode(im, defaultQuality).writeTo(os);
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    /** Returns number of images encoded. */
+    public long encodeCount() {
+        return encodes.get();
+    }
+
+    /** Returns total milliseconds spent encoding. */
+    public double encodeMillis() {
+        return encodeNanos.get() / 1e6;
+    }
+
+    /** Reusable output buffer holding the last image encoded on a thread. */
+    public static class Buffer extends ByteArrayOutputStream {
+
+        /** Nanoseconds spent encoding the image in this buffer. */
+        private long encodeNanos;
+
+        /** Buffer constructor sized for a full screen raster. */
+        Buffer() {
+            super(1 << 20);
+        }
+
+        /** Returns milliseconds spent encoding the image in this buffer. */
+        public double encodeMillis() {
+            return encodeNanos / 1e6;
+        }
+
+        /** Returns the encoded bytes without copying; only the first size() are valid. */
+        public byte[] array() {
+            return buf;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped file of tiles that are already decoded into packed RGB ints, so rasters can
+ * be composited without inflating any PNG. Trades disk space (256KB per 256px tile, about
+ * 5.7GB for a pyramid of depth 7) for decode CPU.
+ * <p>
+ *     Tiles need no index: the tile at (depth, x, y) lives in slot
+ *     (4^depth - 1) / 3 + y * 2^depth + x. The file starts with a header (the int MAGIC,
+ *     VERSION, tile size and maximum depth) followed by one presence byte per slot, padded to
+ *     HEADER_ALIGN, then the little-endian pixels of every slot.
+ * </p>
+ * The pixels are mapped in chunks of at most 1GB since a single mapping cannot exceed 2GB.
+ * Build a store from a TilePack or the img/ folder with the main method.
+ */
+public class RawTileStore implements RasterCompositor.PixelSource {
+
+    /** "BMRT" in ASCII. */
+    private static final int MAGIC = 0x424D5254;
+    private static final int VERSION = 1;
+    /** The pixels start on a multiple of HEADER_ALIGN bytes. */
+    private static final int HEADER_ALIGN = 4096;
+    /** Largest number of bytes in one mapped chunk. */
+    private static final long CHUNK_BYTES = 1L << 30;
+    /** Deepest pyramid whose slots can be numbered with ints. */
+    private static final int MAX_DEPTH = 14;
+    /** Largest tile size a store may hold. */
+    private static final int MAX_TILE_SIZE = 4096;
+
+    /** Each tile is TILE_SIZE by TILE_SIZE pixels. */
+    private final int tileSize;
+    /** Depth of the deepest tiles stored. */
+    private final int maxDepth;
+    /** Whether each slot holds a tile. */
+    private final boolean[] present;
+    /** Number of slots in each mapped chunk. */
+    private final int slotsPerChunk;
+    /** Pixels of the slots, little-endian ints. */
+    private final MappedByteBuffer[] chunks;
+
+    /** Opens the RawTileStore stored in FILE. */
+    public RawTileStore(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC
+                    || header.getInt() != VERSION) {
+                throw new IOException("Not a version " + VERSION + " raw tile store: " + file);
+            }
+            tileSize = header.getInt();
+            maxDepth = header.getInt();
+            if (tileSize < 1 || tileSize > MAX_TILE_SIZE || maxDepth < 0
+                    || maxDepth > MAX_DEPTH) {
+                throw new IOException("Bad tile size " + tileSize + " or depth " + maxDepth
+                        + " in raw tile store: " + file);
+            }
+
+            /* Check the file size before allocating per slot: a bad depth could exhaust memory. */
+            int slots = slotCount(maxDepth);
+            long slotBytes = slotBytes(tileSize);
+            long dataStart = dataStart(slots);
+            if (channel.size() < dataStart + slots * slotBytes) {
+                throw new IOException("Truncated raw tile store: " + file);
+            }
+            ByteBuffer flags = ByteBuffer.allocate(slots);
+            while (flags.hasRemaining()) {
+                if (channel.read(flags, 16 + flags.position()) < 0) {
+                    throw new IOException("Truncated raw tile store: " + file);
+                }
+            }
+            present = new boolean[slots];
+            for (int i = 0; i < slots; i++) {
+                present[i] = flags.get(i) != 0;
+            }
+
+            slotsPerChunk = (int) Math.max(1, CHUNK_BYTES / slotBytes);
+            chunks = new MappedByteBuffer[(slots + slotsPerChunk - 1) / slotsPerChunk];
+            for (int i = 0; i < chunks.length; i++) {
+                int chunkSlots = Math.min(slotsPerChunk, slots - i * slotsPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dataStart + i * slotsPerChunk * slotBytes, chunkSlots * slotBytes);
+                chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /** Returns the width and height of each tile in pixels. */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /** Returns the slot of the tile at (DEPTH, X, Y). */
+    private static int slot(int depth, int x, int y) {
+        return ((1 << (2 * depth)) - 1) / 3 + (y << depth) + x;
+    }
+
+    /** Returns number of slots of a pyramid MAXDEPTH levels deep. */
+    private static int slotCount(int maxDepth) {
+        return slot(maxDepth + 1, 0, 0);
+    }
+
+    /** Returns bytes of the pixels of one tile. */
+    private static long slotBytes(int tileSize) {
+        return (long) tileSize * tileSize * Integer.BYTES;
+    }
+
+    /** Returns the offset of the first pixel in a store of SLOTS slots. */
+    private static long dataStart(int slots) {
+        long header = 16 + slots;
+        return (header + HEADER_ALIGN - 1) / HEADER_ALIGN * HEADER_ALIGN;
+    }
+
+    /** Returns whether the store holds the tile at (DEPTH, X, Y). */
+    public boolean contains(int depth, int x, int y) {
+        int n = 1 << Math.min(depth, 30);
+        return depth >= 0 && depth <= maxDepth && x >= 0 && x < n && y >= 0 && y < n
+                && present[slot(depth, x, y)];
+    }
+
+    /** Returns whether the store holds TILE. */
+    public boolean contains(QuadTree.Tile tile) {
+        return contains(tile.getDepth(), tile.getX(), tile.getY());
+    }
+
+    @Override
+    public void copyTile(QuadTree.Tile tile, int[] pixels, int offset, int stride)
+            throws IOException {
+        if (!contains(tile)) {
+            throw new IOException("Tile " + tile + " is not in the raw tile store");
+        }
+        int slot = slot(tile.getDepth(), tile.getX(), tile.getY());
+        IntBuffer ints = chunks[slot / slotsPerChunk].duplicate()
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int start = (slot % slotsPerChunk) * tileSize * tileSize;
+        for (int row = 0; row < tileSize; row++) {
+            ints.position(start + row * tileSize);
+            ints.get(pixels, offset + row * stride, tileSize);
+        }
+    }
+
+    /**
+     * Writes a RawTileStore to FILE holding every tile of QUADTREE that SOURCE can decode.
+     * Tiles that fail to decode or are not TILESIZE square are left absent.
+     * Returns number of tiles written.
+     */
+    public static int write(RasterCompositor.TileReader source, QuadTree quadTree,
+                            int tileSize, File file) throws IOException {
+        int maxDepth = quadTree.getMaxDepth();
+        int slots = slotCount(maxDepth);
+        long slotBytes = slotBytes(tileSize);
+        long dataStart = dataStart(slots);
+        int written = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            raf.setLength(dataStart + slots * slotBytes);
+
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(MAGIC).putInt(VERSION).putInt(tileSize).putInt(maxDepth).flip();
+            channel.write(header, 0);
+
+            ByteBuffer flags = ByteBuffer.allocate(slots);
+            ByteBuffer pixels = ByteBuffer.allocateDirect((int) slotBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int depth = 0; depth <= maxDepth; depth++) {
+                for (int y = 0; y < (1 << depth); y++) {
+                    for (int x = 0; x < (1 << depth); x++) {
+                        BufferedImage im;
+                        try {
+                            im = RasterCompositor.toIntRgb(
+                                    source.read(quadTree.getTile(depth, x, y)));
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        if (im.getWidth() != tileSize || im.getHeight() != tileSize) {
+                            continue;
+                        }
+                        int[] data = ((DataBufferInt) im.getRaster().getDataBuffer()).getData();
+                        pixels.clear();
+                        pixels.asIntBuffer().put(data, 0, tileSize * tileSize);
+                        pixels.limit((int) slotBytes);
+                        int slot = slot(depth, x, y);
+                        long position = dataStart + slot * slotBytes;
+                        while (pixels.hasRemaining()) {
+                            position += channel.write(pixels, position);
+                        }
+                        flags.put(slot, (byte) 1);
+                        written += 1;
+                    }
+                }
+            }
+            channel.write(flags, 16);
+        }
+        return written;
+    }
+
+    /** Builds a raw tile store: RawTileStore [tiles.pack or imgDir] [rawFile] [maxDepth]. */
+    public static void main(String[] args) throws IOException {
+        File input = new File(args.length > 0 ? args[0] : "img");
+        File output = new File(args.length > 1 ? args[1] : "tiles.raw");
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : QuadTree.DEFAULT_MAX_DEPTH;
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, maxDepth);
+
+        int count = write(TilePack.reader(input), quadTree, MapServer.TILE_SIZE, output);
+        System.out.println("Stored " + count + " decoded tiles from " + input + " in " + output);
+    }
+
+}
@@ -0,0 +1,419 @@
+import java.util.Arrays;
+
+/**
+ * Immutable road graph in compressed sparse row form.
+ * <p>
+ *     Nodes are dense int indices in the order of their OSM ids, so an id is found by binary
+ *     search of the sorted ids. The edges leaving node i are edge indices offsets[i] up to
+ *     offsets[i + 1], each with a target node and a weight. Roads are two way, so every edge
+ *     is stored in both directions.
+ * </p>
+ * <p>
+ *     Weights are the euclidean distance between the ends in degrees by default, or their
+ *     distance in metres by the equirectangular approximation: a degree of longitude is
+ *     scaled by the cosine of the mean latitude of the edge. Either way they are computed
+ *     once, when the graph is built.
+ * </p>
+ * <p>
+ *     Nodes are labelled with their connected component when the graph is built, numbered
+ *     from the largest component down, so whether two nodes are joined at all is known in
+ *     constant time.
+ * </p>
+ * Only nodes on at least one road are kept. Build a graph with a Builder.
+ */
+public class RoadGraph {
+
+    /** Metres per degree of latitude, or of longitude at the equator, on the mean sphere. */
+    public static final double METRES_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    /** OSM ids of the nodes, ascending. */
+    private final long[] ids;
+    /** Longitude and latitude of each node. */
+    private final double[] lons, lats;
+    /** First edge of each node, plus the number of edges at the end. */
+    private final int[] offsets;
+    /** Target node of each edge. */
+    private final int[] targets;
+    /** Weight of each edge. */
+    private final float[] weights;
+    /** Whether weights are in metres rather than degrees. */
+    private final boolean metres;
+    /**
+     * Units of weight per degree of longitude and of latitude in distance(). In metres the
+     * longitude scale uses the latitude furthest from the equator, so it never exceeds an
+     * edge's own scale and the distance stays a lower bound on every route.
+     */
+    private final double lonScale, latScale;
+    /** Connected component of each node, 0 for the largest. */
+    private final int[] components;
+    /** Number of nodes in each component, largest first. */
+    private final int[] componentSizes;
+
+    /** RoadGraph constructor, labelling the components. */
+    private RoadGraph(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets,
+                      float[] weights, boolean metres) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.metres = metres;
+        double maxAbsLat = 0;
+        for (double lat : lats) {
+            maxAbsLat = Math.max(maxAbsLat, Math.abs(lat));
+        }
+        this.lonScale = metres ? Math.cos(Math.toRadians(maxAbsLat)) * METRES_PER_DEGREE : 1;
+        this.latScale = metres ? METRES_PER_DEGREE : 1;
+        this.components = new int[ids.length];
+        this.componentSizes = labelComponents();
+    }
+
+    /**
+     * Labels every node with its connected component by depth first search, then renumbers
+     * the components from the largest down. Returns the size of each component.
+     */
+    private int[] labelComponents() {
+        int n = ids.length;
+        Arrays.fill(components, -1);
+        int[] stack = new int[n];
+        int[] sizes = new int[n];
+        int count = 0;
+        for (int start = 0; start < n; start++) {
+            if (components[start] >= 0) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = start;
+            components[start] = count;
+            while (top > 0) {
+                int node = stack[--top];
+                sizes[count] += 1;
+                for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                    if (components[targets[e]] < 0) {
+                        components[targets[e]] = count;
+                        stack[top++] = targets[e];
+                    }
+                }
+            }
+            count += 1;
+        }
+        /* Sort by size, largest first, keeping components of equal size in order. */
+        long[] order = new long[count];
+        for (int c = 0; c < count; c++) {
+            order[c] = (long) (n - sizes[c]) << 32 | c;
+        }
+        Arrays.sort(order);
+        int[] label = new int[count];
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            int c = (int) order[i];
+            label[c] = i;
+            sorted[i] = sizes[c];
+        }
+        for (int i = 0; i < n; i++) {
+            components[i] = label[components[i]];
+        }
+        return sorted;
+    }
+
+    /** Returns number of nodes. */
+    public int size() {
+        return ids.length;
+    }
+
+    /** Returns number of directed edges. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the index of the node with OSM id ID, or -1 if there is none. */
+    public int indexOf(long id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -1;
+    }
+
+    /** Returns the OSM id of node I. */
+    public long id(int i) {
+        return ids[i];
+    }
+
+    /** Returns longitude of node I. */
+    public double lon(int i) {
+        return lons[i];
+    }
+
+    /** Returns latitude of node I. */
+    public double lat(int i) {
+        return lats[i];
+    }
+
+    /** Returns the first edge leaving node I. */
+    public int firstEdge(int i) {
+        return offsets[i];
+    }
+
+    /** Returns the edge after the last edge leaving node I. */
+    public int endEdge(int i) {
+        return offsets[i + 1];
+    }
+
+    /** Returns the node edge E leads to. */
+    public int target(int e) {
+        return targets[e];
+    }
+
+    /** Returns the weight of edge E. */
+    public float weight(int e) {
+        return weights[e];
+    }
+
+    /** Returns the connected component of node I, 0 for the largest. */
+    public int component(int i) {
+        return components[i];
+    }
+
+    /** Returns number of connected components. */
+    public int componentCount() {
+        return componentSizes.length;
+    }
+
+    /** Returns number of nodes in component C. */
+    public int componentSize(int c) {
+        return componentSizes[c];
+    }
+
+    /** Returns whether some route joins nodes I and J. */
+    public boolean connected(int i, int j) {
+        return components[i] == components[j];
+    }
+
+    /** Returns whether some route joins one of the nodes SOURCES to one of TARGETS. */
+    public boolean connected(int[] sources, int[] targets) {
+        for (int source : sources) {
+            for (int target : targets) {
+                if (components[source] == components[target]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns this graph without the components of fewer than MINSIZE nodes, such as
+     * fragments of service roads cut off at the edge of the map, or this graph if there are
+     * none.
+     */
+    public RoadGraph withoutComponentsSmallerThan(int minSize) {
+        int kept = 0;
+        while (kept < componentSizes.length && componentSizes[kept] >= minSize) {
+            kept += 1;
+        }
+        if (kept == componentSizes.length) {
+            return this;
+        }
+        int[] index = new int[ids.length];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            index[i] = components[i] < kept ? size++ : -1;
+        }
+        long[] keptIds = new long[size];
+        double[] keptLons = new double[size], keptLats = new double[size];
+        int[] keptOffsets = new int[size + 1];
+        for (int i = 0; i < ids.length; i++) {
+            if (index[i] >= 0) {
+                keptIds[index[i]] = ids[i];
+                keptLons[index[i]] = lons[i];
+                keptLats[index[i]] = lats[i];
+                keptOffsets[index[i] + 1] = offsets[i + 1] - offsets[i];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            keptOffsets[i + 1] += keptOffsets[i];
+        }
+        int[] keptTargets = new int[keptOffsets[size]];
+        float[] keptWeights = new float[keptOffsets[size]];
+        for (int i = 0; i < ids.length; i++) {
+            if (index[i] >= 0) {
+                int e2 = keptOffsets[index[i]];
+                for (int e = offsets[i]; e < offsets[i + 1]; e++, e2++) {
+                    keptTargets[e2] = index[targets[e]];
+                    keptWeights[e2] = weights[e];
+                }
+            }
+        }
+        return new RoadGraph(keptIds, keptLons, keptLats, keptOffsets, keptTargets,
+                keptWeights, metres);
+    }
+
+    /** Returns whether weights are in metres rather than degrees. */
+    public boolean isMetres() {
+        return metres;
+    }
+
+    /**
+     * Returns the straight line distance between node I and (LON, LAT) in the units of the
+     * weights, never more than the length of any route between them.
+     */
+    public double distance(int i, double lon, double lat) {
+        double dx = (lons[i] - lon) * lonScale;
+        double dy = (lats[i] - lat) * latScale;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** Returns approximate bytes used by the graph arrays. */
+    public long bytes() {
+        return 8L * (ids.length + lons.length + lats.length)
+                + 4L * (offsets.length + targets.length + weights.length + components.length
+                + componentSizes.length);
+    }
+
+    /** Collects nodes and road segments by OSM id, then builds a RoadGraph. */
+    public static class Builder {
+
+        /** Ids and coordinates of every node added, in order of addition. */
+        private long[] nodeIds = new long[1024];
+        private double[] nodeLons = new double[1024], nodeLats = new double[1024];
+        private int nodeCount;
+        /** Ends of every road segment added. */
+        private long[] edgeFrom = new long[1024], edgeTo = new long[1024];
+        private int edgeCount;
+        /** Whether to weigh edges in metres rather than degrees. */
+        private final boolean metres;
+
+        /** Builder constructor for a graph weighted in degrees. */
+        public Builder() {
+            this(false);
+        }
+
+        /** Builder constructor for a graph weighted in metres if METRES, else degrees. */
+        public Builder(boolean metres) {
+            this.metres = metres;
+        }
+
+        /** Adds the node with OSM id ID at (LON, LAT). */
+        public void addNode(long id, double lon, double lat) {
+            if (nodeCount == nodeIds.length) {
+                nodeIds = Arrays.copyOf(nodeIds, 2 * nodeCount);
+                nodeLons = Arrays.copyOf(nodeLons, 2 * nodeCount);
+                nodeLats = Arrays.copyOf(nodeLats, 2 * nodeCount);
+            }
+            nodeIds[nodeCount] = id;
+            nodeLons[nodeCount] = lon;
+            nodeLats[nodeCount] = lat;
+            nodeCount += 1;
+        }
+
+        /** Adds a two way road segment between the nodes with OSM ids FROM and TO. */
+        public void addEdge(long from, long to) {
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, 2 * edgeCount);
+                edgeTo = Arrays.copyOf(edgeTo, 2 * edgeCount);
+            }
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeCount += 1;
+        }
+
+        /**
+         * Returns the graph of every road segment whose ends were both added as nodes.
+         * Duplicate segments and segments from a node to itself are dropped.
+         */
+        public RoadGraph build() {
+            long[] sorted = Arrays.copyOf(nodeIds, nodeCount);
+            Arrays.sort(sorted);
+            double[] sortedLons = new double[nodeCount], sortedLats = new double[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                int pos = Arrays.binarySearch(sorted, nodeIds[i]);
+                sortedLons[pos] = nodeLons[i];
+                sortedLats[pos] = nodeLats[i];
+            }
+
+            /* Resolve segment ends and keep only the nodes some segment uses. */
+            int[] from = new int[edgeCount], to = new int[edgeCount];
+            boolean[] used = new boolean[nodeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                from[e] = Arrays.binarySearch(sorted, edgeFrom[e]);
+                to[e] = Arrays.binarySearch(sorted, edgeTo[e]);
+                if (from[e] >= 0 && to[e] >= 0 && from[e] != to[e]) {
+                    used[from[e]] = true;
+                    used[to[e]] = true;
+                }
+            }
+            int[] index = new int[nodeCount];
+            int size = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                index[i] = used[i] ? size++ : -1;
+            }
+            long[] ids = new long[size];
+            double[] lons = new double[size], lats = new double[size];
+            for (int i = 0; i < nodeCount; i++) {
+                if (used[i]) {
+                    ids[index[i]] = sorted[i];
+                    lons[index[i]] = sortedLons[i];
+                    lats[index[i]] = sortedLats[i];
+                }
+            }
+
+            /* Count, then place, both directions of every segment. */
+            int[] offsets = new int[size + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                if (from[e] >= 0 && to[e] >= 0 && from[e] != to[e]) {
+                    offsets[index[from[e]] + 1] += 1;
+                    offsets[index[to[e]] + 1] += 1;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] targets = new int[offsets[size]];
+            int[] next = Arrays.copyOf(offsets, size);
+            for (int e = 0; e < edgeCount; e++) {
+                if (from[e] >= 0 && to[e] >= 0 && from[e] != to[e]) {
+                    int u = index[from[e]], v = index[to[e]];
+                    targets[next[u]++] = v;
+                    targets[next[v]++] = u;
+                }
+            }
+
+            /* Drop duplicate segments, shared by ways that overlap. */
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int start = offsets[i], end = offsets[i + 1];
+                Arrays.sort(targets, start, end);
+                offsets[i] = kept;
+                for (int e = start; e < end; e++) {
+                    if (e == start || targets[e] != targets[e - 1]) {
+                        targets[kept++] = targets[e];
+                    }
+                }
+            }
+            offsets[size] = kept;
+            targets = Arrays.copyOf(targets, kept);
+
+            float[] weights = new float[kept];
+            for (int i = 0; i < size; i++) {
+                for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                    int j = targets[e];
+                    weights[e] = length(lons[i], lats[i], lons[j], lats[j]);
+                }
+            }
+            return new RoadGraph(ids, lons, lats, offsets, targets, weights, metres);
+        }
+
+        /** Returns the weight of a segment from (LON0, LAT0) to (LON1, LAT1). */
+        private float length(double lon0, double lat0, double lon1, double lat1) {
+            double dx = lon1 - lon0, dy = lat1 - lat0;
+            if (metres) {
+                dx *= Math.cos(Math.toRadians((lat0 + lat1) / 2)) * METRES_PER_DEGREE;
+                dy *= METRES_PER_DEGREE;
+            }
+            double length = Math.sqrt(dx * dx + dy * dy);
+            /* Round up in both units, so that distance() stays below the weight of every edge. */
+            float rounded = (float) length;
+            return rounded < length ? Math.nextUp(rounded) : rounded;
+        }
+    }
+
+}
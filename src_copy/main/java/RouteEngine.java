@@ -0,0 +1,33 @@
+/** Finds shortest routes between nodes of a RoadGraph. Implementations are thread safe. */
+public interface RouteEngine {
+
+    /** Returns the shortest route from node SOURCE to node TARGET. */
+    RouteResult route(int source, int target);
+
+    /**
+     * Returns the shortest route from any node SOURCES[i], reached after SOURCEOFFSETS[i], to
+     * any node TARGETS[j], left after TARGETOFFSETS[j], as from a virtual node joined to the
+     * sources to one joined to the targets. The distance includes both offsets.
+     * This default routes every pair of nodes; engines override it to search once.
+     */
+    default RouteResult route(int[] sources, double[] sourceOffsets, int[] targets,
+                              double[] targetOffsets) {
+        RouteResult best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        int settled = 0;
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                RouteResult result = route(sources[i], targets[j]);
+                settled += result.getSettled();
+                double distance = sourceOffsets[i] + result.getDistance() + targetOffsets[j];
+                if (!result.isEmpty() && distance < bestDistance) {
+                    best = result;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best == null ? RouteResult.none(settled)
+                : new RouteResult(best.getPath(), bestDistance, settled);
+    }
+
+}
@@ -0,0 +1,135 @@
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.List;
+
+/**
+ * A route drawn on its own transparent layer for one raster, so the same layer can be laid
+ * over the raster again without finding or drawing the route again.
+ * The layer only covers the route's bounding box on the raster, not the whole raster, and
+ * the route is clipped and simplified to the raster by RoutePolyline before it is drawn.
+ */
+public class RouteOverlay {
+
+    /** Overlay of a route that misses the raster entirely. */
+    private static final RouteOverlay EMPTY = new RouteOverlay(null, 0, 0);
+
+    /** The drawn route, null if it misses the raster. */
+    private final BufferedImage image;
+    /** Position of the upper left pixel of IMAGE on the raster. */
+    private final int x, y;
+
+    /** RouteOverlay constructor. */
+    private RouteOverlay(BufferedImage image, int x, int y) {
+        this.image = image;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Returns the overlay of the route through the points (LONS[i], LATS[i]) on a raster of
+     * WIDTH by HEIGHT pixels spanning the box from (ULLON, ULLAT) to (LRLON, LRLAT).
+     */
+    public static RouteOverlay render(double[] lons, double[] lats, double ullon, double ullat,
+                                      double lrlon, double lrlat, int width, int height) {
+        double[][] pixels = toPixels(lons, lats, ullon, ullat, lrlon, lrlat, width, height);
+        List<int[]> runs = simplify(pixels, width, height);
+        if (runs.isEmpty()) {
+            return EMPTY;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int[] run : runs) {
+            for (int i : run) {
+                int px = (int) Math.floor(pixels[0][i]);
+                int py = (int) Math.floor(pixels[1][i]);
+                minX = Math.min(minX, px);
+                minY = Math.min(minY, py);
+                maxX = Math.max(maxX, px);
+                maxY = Math.max(maxY, py);
+            }
+        }
+        int pad = (int) Math.ceil(MapServer.ROUTE_STROKE_WIDTH_PX / 2) + 1;
+        int x0 = Math.max(0, minX - pad), y0 = Math.max(0, minY - pad);
+        int x1 = Math.min(width, maxX + pad + 1), y1 = Math.min(height, maxY + pad + 1);
+        if (x1 <= x0 || y1 <= y0) {
+            return EMPTY;
+        }
+
+        BufferedImage image = new BufferedImage(x1 - x0, y1 - y0, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics2D = image.createGraphics();
+        graphics2D.translate(-x0, -y0);
+        draw(graphics2D, pixels, runs);
+        graphics2D.dispose();
+        return new RouteOverlay(image, x0, y0);
+    }
+
+    /**
+     * Draws the route through the points (LONS[i], LATS[i]) with GRAPHICS2D onto a raster of
+     * WIDTH by HEIGHT pixels spanning the box from (ULLON, ULLAT) to (LRLON, LRLAT), using
+     * ROUTE_STROKE_COLOR and ROUTE_STROKE_WIDTH_PX with round caps and joins.
+     * Only the parts of the route near the raster are drawn, simplified to the raster's scale.
+     */
+    public static void draw(Graphics2D graphics2D, double[] lons, double[] lats,
+                            double ullon, double ullat, double lrlon, double lrlat,
+                            int width, int height) {
+        double[][] pixels = toPixels(lons, lats, ullon, ullat, lrlon, lrlat, width, height);
+        draw(graphics2D, pixels, simplify(pixels, width, height));
+    }
+
+    /** Draws the RUNS of the route whose points are at PIXELS with GRAPHICS2D. */
+    private static void draw(Graphics2D graphics2D, double[][] pixels, List<int[]> runs) {
+        graphics2D.setColor(MapServer.ROUTE_STROKE_COLOR);
+        graphics2D.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (int[] run : runs) {
+            for (int k = 1; k < run.length; k++) {
+                graphics2D.drawLine((int) Math.floor(pixels[0][run[k - 1]]),
+                        (int) Math.floor(pixels[1][run[k - 1]]),
+                        (int) Math.floor(pixels[0][run[k]]),
+                        (int) Math.floor(pixels[1][run[k]]));
+            }
+        }
+    }
+
+    /** Returns the runs of the route at PIXELS worth drawing on a WIDTH by HEIGHT raster. */
+    private static List<int[]> simplify(double[][] pixels, int width, int height) {
+        return RoutePolyline.simplify(pixels[0], pixels[1], width, height,
+                MapServer.ROUTE_STROKE_WIDTH_PX, RoutePolyline.DEFAULT_TOLERANCE_PX);
+    }
+
+    /**
+     * Returns the x and y raster pixel coordinates of the points (LONS[i], LATS[i]) on a
+     * raster of WIDTH by HEIGHT pixels spanning the box from (ULLON, ULLAT) to (LRLON, LRLAT).
+     */
+    static double[][] toPixels(double[] lons, double[] lats, double ullon, double ullat,
+                               double lrlon, double lrlat, int width, int height) {
+        double[][] pixels = new double[2][lons.length];
+        for (int i = 0; i < lons.length; i++) {
+            pixels[0][i] = (lons[i] - ullon) / (lrlon - ullon) * width;
+            pixels[1][i] = (ullat - lats[i]) / (ullat - lrlat) * height;
+        }
+        return pixels;
+    }
+
+    /** Lays this overlay over RASTER. */
+    public void paint(BufferedImage raster) {
+        if (image == null) {
+            return;
+        }
+        Graphics2D graphics2D = raster.createGraphics();
+        graphics2D.drawImage(image, x, y, null);
+        graphics2D.dispose();
+    }
+
+    /** Returns number of bytes used by the pixels of this overlay. */
+    public long bytes() {
+        if (image == null) {
+            return 0;
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * Integer.BYTES;
+    }
+
+}
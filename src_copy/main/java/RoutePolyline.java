@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a route polyline to the points worth drawing on one raster.
+ * <p>
+ *     Points are handled in raster pixels, so the same route keeps more detail on deeper
+ *     rasters. Segments that cannot touch the raster are clipped away, which splits the route
+ *     into runs, and each run is simplified with Douglas-Peucker so that no dropped point lies
+ *     further than the tolerance from the drawn line.
+ * </p>
+ * Runs are returned as indices into the input points, so callers can map them back to node
+ * ids as well as to coordinates.
+ */
+public class RoutePolyline {
+
+    /** Largest distance in pixels between a dropped point and the simplified line. */
+    public static final double DEFAULT_TOLERANCE_PX = 0.5;
+
+    /**
+     * Returns the runs of indices of the points (XS[i], YS[i]) to draw on a raster of WIDTH by
+     * HEIGHT pixels, keeping segments within MARGIN pixels of the raster and simplifying with
+     * TOLERANCE pixels. Consecutive points of a run are joined; separate runs are not.
+     */
+    public static List<int[]> simplify(double[] xs, double[] ys, int width, int height,
+                                       double margin, double tolerance) {
+        List<int[]> runs = new ArrayList<>();
+        int start = -1;
+        for (int i = 1; i < xs.length; i++) {
+            boolean visible = segmentNearRaster(xs[i - 1], ys[i - 1], xs[i], ys[i],
+                    width, height, margin);
+            if (visible && start < 0) {
+                start = i - 1;
+            } else if (!visible && start >= 0) {
+                runs.add(douglasPeucker(xs, ys, start, i - 1, tolerance));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            runs.add(douglasPeucker(xs, ys, start, xs.length - 1, tolerance));
+        }
+        return runs;
+    }
+
+    /**
+     * Returns whether the bounding box of the segment from (X0, Y0) to (X1, Y1) comes within
+     * MARGIN pixels of a WIDTH by HEIGHT raster.
+     */
+    private static boolean segmentNearRaster(double x0, double y0, double x1, double y1,
+                                             int width, int height, double margin) {
+        return Math.max(x0, x1) >= -margin && Math.min(x0, x1) <= width + margin
+                && Math.max(y0, y1) >= -margin && Math.min(y0, y1) <= height + margin;
+    }
+
+    /**
+     * Returns the sorted indices from FIRST to LAST, both included, that Douglas-Peucker keeps
+     * with TOLERANCE. Uses an explicit stack so long routes cannot overflow the call stack.
+     */
+    private static int[] douglasPeucker(double[] xs, double[] ys, int first, int last,
+                                        double tolerance) {
+        boolean[] keep = new boolean[last - first + 1];
+        keep[0] = true;
+        keep[keep.length - 1] = true;
+        double toleranceSquared = tolerance * tolerance;
+        int[] stack = new int[2 * keep.length];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            double farthest = -1;
+            int split = -1;
+            for (int i = from + 1; i < to; i++) {
+                double d = squaredSegmentDistance(xs[i], ys[i], xs[from], ys[from],
+                        xs[to], ys[to]);
+                if (d > farthest) {
+                    farthest = d;
+                    split = i;
+                }
+            }
+            if (split >= 0 && farthest > toleranceSquared) {
+                keep[split - first] = true;
+                stack[top++] = from;
+                stack[top++] = split;
+                stack[top++] = split;
+                stack[top++] = to;
+            }
+        }
+
+        int count = 0;
+        for (boolean k : keep) {
+            count += k ? 1 : 0;
+        }
+        int[] indices = new int[count];
+        for (int i = 0, j = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                indices[j++] = first + i;
+            }
+        }
+        return indices;
+    }
+
+    /** Returns the squared distance from (PX, PY) to the segment from (X0, Y0) to (X1, Y1). */
+    static double squaredSegmentDistance(double px, double py, double x0, double y0,
+                                         double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0
+                : Math.max(0, Math.min(1, ((px - x0) * dx + (py - y0) * dy) / lengthSquared));
+        double ex = x0 + t * dx - px, ey = y0 + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Immutable result of a route query: the nodes of the route, its length, and how many nodes
+ * the search settled to find it.
+ */
+public class RouteResult {
+
+    /** Indices of the route's nodes in the RoadGraph, from start to end. */
+    private final int[] path;
+    /** Sum of the weights of the route's edges. */
+    private final double distance;
+    /** Number of nodes the search settled. */
+    private final int settled;
+
+    /** RouteResult constructor. */
+    public RouteResult(int[] path, double distance, int settled) {
+        this.path = path;
+        this.distance = distance;
+        this.settled = settled;
+    }
+
+    /** Returns the result of a search that settled SETTLED nodes without finding a route. */
+    public static RouteResult none(int settled) {
+        return new RouteResult(new int[0], Double.POSITIVE_INFINITY, settled);
+    }
+
+    /** Returns whether no route was found. */
+    public boolean isEmpty() {
+        return path.length == 0;
+    }
+
+    /** Returns indices of the route's nodes, from start to end. Do not modify. */
+    public int[] getPath() {
+        return path;
+    }
+
+    /** Returns the length of the route, infinite if there is none. */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** Returns number of nodes settled by the search. */
+    public int getSettled() {
+        return settled;
+    }
+
+}
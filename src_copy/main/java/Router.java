@@ -0,0 +1,190 @@
+import java.util.Arrays;
+
+/**
+ * A* search over a RoadGraph, producing no garbage beyond the returned path.
+ * <p>
+ *     Each thread keeps a workspace of distance, parent and stamp arrays sized to the graph,
+ *     plus an IndexedMinHeap, and reuses it across queries. Instead of clearing the arrays,
+ *     every query takes a new generation number: a node's distance only counts if its stamp
+ *     equals the current generation. Queued nodes have their keys lowered in place, so every
+ *     node is settled at most once.
+ * </p>
+ * The heuristic defaults to the straight line distance to the target, which never exceeds
+ * the true distance in degrees or in metres; Landmarks gives tighter bounds.
+ */
+public class Router implements RouteEngine {
+
+    /** Offset of a single source or target. */
+    private static final double[] ZERO = {0};
+
+    /** Graph searched. */
+    private final RoadGraph graph;
+    /** Lower bound on the distance left to the target. */
+    private final Heuristic heuristic;
+    /** Workspace of each thread. */
+    private final ThreadLocal<Workspace> workspaces;
+
+    /** Router constructor for GRAPH with the euclidean heuristic. */
+    public Router(RoadGraph graph) {
+        this(graph, Heuristic.euclidean(graph));
+    }
+
+    /** Router constructor for GRAPH guided by HEURISTIC. */
+    public Router(RoadGraph graph, Heuristic heuristic) {
+        this.graph = graph;
+        this.heuristic = heuristic;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(graph.size()));
+    }
+
+    /** Returns the graph searched. */
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    @Override
+    public RouteResult route(int source, int target) {
+        Workspace w = workspaces.get();
+        w.source[0] = source;
+        w.target[0] = target;
+        return search(w, w.source, ZERO, w.target, ZERO);
+    }
+
+    @Override
+    public RouteResult route(int[] sources, double[] sourceOffsets, int[] targets,
+                             double[] targetOffsets) {
+        return search(workspaces.get(), sources, sourceOffsets, targets, targetOffsets);
+    }
+
+    /**
+     * Returns the shortest route from SOURCES to TARGETS with their offsets, using W.
+     * The heuristic to the targets is the least of the heuristics to each plus its offset,
+     * which stays consistent, and the search ends once no queued node can beat the best
+     * target settled.
+     */
+    private RouteResult search(Workspace w, int[] sources, double[] sourceOffsets,
+                               int[] targets, double[] targetOffsets) {
+        if (!graph.connected(sources, targets)) {
+            return RouteResult.none(0);
+        }
+        int generation = w.begin();
+        for (int j = 0; j < targets.length; j++) {
+            int target = targets[j];
+            if (w.targets[target] != generation || targetOffsets[j] < w.targetOffset[target]) {
+                w.targets[target] = generation;
+                w.targetOffset[target] = targetOffsets[j];
+            }
+        }
+        for (int i = 0; i < sources.length; i++) {
+            int source = sources[i];
+            if (w.reached[source] != generation || sourceOffsets[i] < w.dist[source]) {
+                w.reach(source, sourceOffsets[i], -1, generation);
+                w.heap.insertOrDecrease(source,
+                        sourceOffsets[i] + estimate(source, targets, targetOffsets));
+            }
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int bestTarget = -1;
+        int settled = 0;
+        while (!w.heap.isEmpty() && w.heap.minKey() < best) {
+            int node = w.heap.poll();
+            w.settled[node] = generation;
+            settled += 1;
+            double nodeDist = w.dist[node];
+            if (w.targets[node] == generation && nodeDist + w.targetOffset[node] < best) {
+                best = nodeDist + w.targetOffset[node];
+                bestTarget = node;
+            }
+            for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                int next = graph.target(e);
+                if (w.settled[next] == generation) {
+                    continue;
+                }
+                double dist = nodeDist + graph.weight(e);
+                if (w.reached[next] != generation || dist < w.dist[next]) {
+                    w.reach(next, dist, node, generation);
+                    w.heap.insertOrDecrease(next,
+                            dist + estimate(next, targets, targetOffsets));
+                }
+            }
+        }
+        if (bestTarget < 0) {
+            return RouteResult.none(settled);
+        }
+        return new RouteResult(w.path(bestTarget), best, settled);
+    }
+
+    /** Returns a lower bound on the distance from NODE to the TARGETS past their offsets. */
+    private double estimate(int node, int[] targets, double[] targetOffsets) {
+        double estimate = heuristic.estimate(node, targets[0]) + targetOffsets[0];
+        for (int j = 1; j < targets.length; j++) {
+            estimate = Math.min(estimate,
+                    heuristic.estimate(node, targets[j]) + targetOffsets[j]);
+        }
+        return estimate;
+    }
+
+    /** Search state of one thread, reused across queries. */
+    private static class Workspace {
+
+        /** Best known distance from the source and previous node of each reached node. */
+        private final double[] dist;
+        private final int[] parent;
+        /** Generation in which each node was last reached and last settled. */
+        private final int[] reached, settled;
+        /** Generation in which each node was last a target, and its offset then. */
+        private final int[] targets;
+        private final double[] targetOffset;
+        /** Holders of a single source and target. */
+        private final int[] source = new int[1], target = new int[1];
+        /** Queue of reached but unsettled nodes. */
+        private final IndexedMinHeap heap;
+        /** Generation of the current query. */
+        private int generation;
+
+        /** Workspace constructor for a graph of SIZE nodes. */
+        Workspace(int size) {
+            dist = new double[size];
+            parent = new int[size];
+            reached = new int[size];
+            settled = new int[size];
+            targets = new int[size];
+            targetOffset = new double[size];
+            heap = new IndexedMinHeap(size);
+        }
+
+        /** Starts a query and returns its generation. */
+        int begin() {
+            heap.clear();
+            generation += 1;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(reached, 0);
+                Arrays.fill(settled, 0);
+                Arrays.fill(targets, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+
+        /** Records that NODE was reached at DISTANCE from PREVIOUS in GENERATION. */
+        void reach(int node, double distance, int previous, int generation) {
+            dist[node] = distance;
+            parent[node] = previous;
+            reached[node] = generation;
+        }
+
+        /** Returns the nodes from the source to TARGET by following parents. */
+        int[] path(int target) {
+            int length = 0;
+            for (int node = target; node >= 0; node = parent[node]) {
+                length += 1;
+            }
+            int[] path = new int[length];
+            for (int node = target, i = length - 1; node >= 0; node = parent[node], i--) {
+                path[i] = node;
+            }
+            return path;
+        }
+    }
+
+}
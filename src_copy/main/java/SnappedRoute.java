@@ -0,0 +1,95 @@
+/**
+ * Route between two points snapped onto roads by an EdgeRTree, rather than between the nodes
+ * nearest them. Each end is a virtual node partway along a segment, joined to both ends of
+ * the segment, so the route may leave it in either direction.
+ * The route is drawn from the snapped start through its nodes to the snapped end.
+ */
+public class SnappedRoute {
+
+    /** Indices of the route's nodes in the RoadGraph, from start to end. */
+    private final int[] nodes;
+    /** Longitudes and latitudes of the snapped start, the nodes and the snapped end. */
+    private final double[] lons, lats;
+    /** Length of the route, infinite if there is none. */
+    private final double distance;
+    /** Number of nodes the search settled. */
+    private final int settled;
+
+    /** SnappedRoute constructor. */
+    private SnappedRoute(int[] nodes, double[] lons, double[] lats, double distance,
+                         int settled) {
+        this.nodes = nodes;
+        this.lons = lons;
+        this.lats = lats;
+        this.distance = distance;
+        this.settled = settled;
+    }
+
+    /** Returns the shortest route of GRAPH from START to END found with ROUTER. */
+    public static SnappedRoute between(RoadGraph graph, RouteEngine router,
+                                       EdgeRTree.Snap start, EdgeRTree.Snap end) {
+        double startLength = graph.weight(start.getEdge());
+        double endLength = graph.weight(end.getEdge());
+        RouteResult result = router.route(new int[] {start.getFrom(), start.getTo()},
+                new double[] {start.getFraction() * startLength,
+                    (1 - start.getFraction()) * startLength},
+                new int[] {end.getFrom(), end.getTo()},
+                new double[] {end.getFraction() * endLength,
+                    (1 - end.getFraction()) * endLength});
+        /* Both ends on one segment may be joined along it without reaching either node. */
+        if (start.getEdge() == end.getEdge()) {
+            double along = Math.abs(start.getFraction() - end.getFraction()) * startLength;
+            if (along <= result.getDistance()) {
+                return new SnappedRoute(new int[0], new double[] {start.getLon(), end.getLon()},
+                        new double[] {start.getLat(), end.getLat()}, along,
+                        result.getSettled());
+            }
+        }
+        if (result.isEmpty()) {
+            return new SnappedRoute(new int[0], new double[0], new double[0],
+                    Double.POSITIVE_INFINITY, result.getSettled());
+        }
+        int[] path = result.getPath();
+        double[] lons = new double[path.length + 2], lats = new double[path.length + 2];
+        lons[0] = start.getLon();
+        lats[0] = start.getLat();
+        for (int i = 0; i < path.length; i++) {
+            lons[i + 1] = graph.lon(path[i]);
+            lats[i + 1] = graph.lat(path[i]);
+        }
+        lons[path.length + 1] = end.getLon();
+        lats[path.length + 1] = end.getLat();
+        return new SnappedRoute(path, lons, lats, result.getDistance(), result.getSettled());
+    }
+
+    /** Returns whether no route was found. */
+    public boolean isEmpty() {
+        return lons.length == 0;
+    }
+
+    /** Returns indices of the route's nodes, from start to end. Do not modify. */
+    public int[] getNodes() {
+        return nodes;
+    }
+
+    /** Returns longitudes of the points to draw, from start to end. Do not modify. */
+    public double[] getLons() {
+        return lons;
+    }
+
+    /** Returns latitudes of the points to draw, from start to end. Do not modify. */
+    public double[] getLats() {
+        return lats;
+    }
+
+    /** Returns the length of the route, infinite if there is none. */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** Returns number of nodes settled by the search. */
+    public int getSettled() {
+        return settled;
+    }
+
+}
@@ -0,0 +1,269 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A single file holding every tile image of the img/ folder, read through a memory mapping.
+ * <p>
+ *     Layout, big-endian: the int MAGIC, the int VERSION and the int number of tiles, then
+ *     one index entry per tile sorted by key (long key, long offset, int length), then the
+ *     tile bytes. A key is the tile's quadtree path read as a decimal number, 0 for the root,
+ *     which supports depths up to 18.
+ * </p>
+ * Tile bytes are returned as slices of the mapping, so reading a tile copies nothing and
+ * opens no file. Build a pack from an img/ folder with the main method.
+ */
+public class TilePack implements RasterCompositor.TileReader {
+
+    /** "BMTP" in ASCII. */
+    private static final int MAGIC = 0x424D5450;
+    private static final int VERSION = 1;
+    /** Bytes of the header and of each index entry. */
+    private static final int HEADER_BYTES = 12, ENTRY_BYTES = 20;
+    /** Deepest tiles whose path fits in a long key. */
+    private static final int MAX_KEY_DEPTH = 18;
+
+    /** Sorted keys of the packed tiles. */
+    private final long[] keys;
+    /** Offsets and lengths of the tile bytes of each key. */
+    private final long[] offsets;
+    private final int[] lengths;
+    /** The whole pack file. */
+    private final MappedByteBuffer mapping;
+
+    /** Opens the TilePack stored in FILE. */
+    public TilePack(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tile pack larger than 2GB: " + file);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapping.capacity() < HEADER_BYTES || mapping.getInt(0) != MAGIC
+                || mapping.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " tile pack: " + file);
+        }
+        int count = mapping.getInt(8);
+        if (count < 0 || HEADER_BYTES + (long) count * ENTRY_BYTES > mapping.capacity()) {
+            throw new IOException("Bad tile count " + count + " in tile pack: " + file);
+        }
+        keys = new long[count];
+        offsets = new long[count];
+        lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_BYTES + i * ENTRY_BYTES;
+            keys[i] = mapping.getLong(entry);
+            offsets[i] = mapping.getLong(entry + 8);
+            lengths[i] = mapping.getInt(entry + 16);
+            if (i > 0 && keys[i] <= keys[i - 1]) {
+                throw new IOException("Unsorted index in tile pack: " + file);
+            }
+            if (offsets[i] < 0 || lengths[i] < 0
+                    || offsets[i] > mapping.capacity() - lengths[i]) {
+                throw new IOException("Tile bytes past the end of tile pack: " + file);
+            }
+        }
+    }
+
+    /** Returns the key of the Tile at (DEPTH, X, Y). */
+    static long key(int depth, int x, int y) {
+        if (depth > MAX_KEY_DEPTH) {
+            throw new IllegalArgumentException("Tile too deep for a pack: " + depth);
+        }
+        return depth == 0 ? 0 : Long.parseLong(QuadTree.path(depth, x, y));
+    }
+
+    /** Returns number of packed tiles. */
+    public int size() {
+        return keys.length;
+    }
+
+    /** Returns whether the pack holds the Tile at (DEPTH, X, Y). */
+    public boolean contains(int depth, int x, int y) {
+        return depth <= MAX_KEY_DEPTH && Arrays.binarySearch(keys, key(depth, x, y)) >= 0;
+    }
+
+    /**
+     * Returns a read-only view of the encoded bytes of the Tile at (DEPTH, X, Y), backed by
+     * the mapping, or null if the pack does not hold it.
+     */
+    public ByteBuffer get(int depth, int x, int y) {
+        if (depth > MAX_KEY_DEPTH) {
+            return null;
+        }
+        int i = Arrays.binarySearch(keys, key(depth, x, y));
+        if (i < 0) {
+            return null;
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.position((int) offsets[i]);
+        view.limit((int) offsets[i] + lengths[i]);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /** Returns the decoded image of TILE. */
+    @Override
+    public BufferedImage read(QuadTree.Tile tile) throws IOException {
+        ByteBuffer bytes = get(tile.getDepth(), tile.getX(), tile.getY());
+        if (bytes == null) {
+            throw new IOException("Tile " + tile + " is not in the pack");
+        }
+        BufferedImage im = ImageIO.read(new ByteBufferInputStream(bytes));
+        if (im == null) {
+            throw new IOException("Unreadable tile " + tile);
+        }
+        return im;
+    }
+
+    /**
+     * Writes a TilePack to PACKFILE holding every tile of IMGDIR down to MAXDEPTH.
+     * Missing tiles are skipped. Returns number of tiles written.
+     */
+    public static int write(File imgDir, File packFile, int maxDepth) throws IOException {
+        if (maxDepth > MAX_KEY_DEPTH) {
+            throw new IllegalArgumentException("Tile too deep for a pack: " + maxDepth);
+        }
+        TreeMap<Long, File> files = new TreeMap<>();
+        collect(imgDir, "", 0, maxDepth, files);
+
+        TreeMap<Long, TileBytes> tiles = new TreeMap<>();
+        for (Map.Entry<Long, File> entry : files.entrySet()) {
+            tiles.put(entry.getKey(), () -> Files.readAllBytes(entry.getValue().toPath()));
+        }
+        return write(tiles, packFile);
+    }
+
+    /**
+     * Writes a TilePack to PACKFILE holding the bytes of TILES by key, skipping tiles whose
+     * bytes are null. The index is written last, once every length is known, so only one
+     * tile is held in memory at a time. Returns number of tiles written.
+     */
+    public static int write(SortedMap<Long, TileBytes> tiles, File packFile)
+            throws IOException {
+        long dataStart = HEADER_BYTES + (long) ENTRY_BYTES * tiles.size();
+        if (dataStart > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many tiles for a pack: " + tiles.size());
+        }
+        ByteBuffer index = ByteBuffer.allocate((int) dataStart);
+        index.position(HEADER_BYTES);
+        int count = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            long offset = dataStart;
+            for (Map.Entry<Long, TileBytes> entry : tiles.entrySet()) {
+                byte[] bytes = entry.getValue().get();
+                if (bytes == null) {
+                    continue;
+                }
+                index.putLong(entry.getKey()).putLong(offset).putInt(bytes.length);
+                ByteBuffer data = ByteBuffer.wrap(bytes);
+                while (data.hasRemaining()) {
+                    offset += channel.write(data, offset);
+                }
+                count += 1;
+            }
+            index.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, count);
+            index.rewind();
+            long position = 0;
+            while (index.hasRemaining()) {
+                position += channel.write(index, position);
+            }
+        }
+        return count;
+    }
+
+    /** Adds the tile at PATH and its descendants down to MAXDEPTH to FILES by key. */
+    private static void collect(File imgDir, String path, int depth, int maxDepth,
+                                TreeMap<Long, File> files) {
+        File file = new File(imgDir, depth == 0 ? "root.png" : path + ".png");
+        if (file.isFile()) {
+            files.put(depth == 0 ? 0 : Long.parseLong(path), file);
+        }
+        if (depth < maxDepth) {
+            for (char quadrant = '1'; quadrant <= '4'; quadrant++) {
+                collect(imgDir, path + quadrant, depth + 1, maxDepth, files);
+            }
+        }
+    }
+
+    /**
+     * Returns a reader of the tiles in INPUT: a TilePack if INPUT is a file, otherwise a
+     * folder of tile images named like img/.
+     */
+    public static RasterCompositor.TileReader reader(File input) throws IOException {
+        if (input.isFile()) {
+            return new TilePack(input);
+        }
+        return tile -> {
+            BufferedImage im = ImageIO.read(new File(input,
+                    QuadTree.fileName(tile.getDepth(), tile.getX(), tile.getY())));
+            if (im == null) {
+                throw new IOException("Unreadable tile " + tile);
+            }
+            return im;
+        };
+    }
+
+    /** Builds a tile pack: TilePack [imgDir] [packFile] [maxDepth]. */
+    public static void main(String[] args) throws IOException {
+        File imgDir = new File(args.length > 0 ? args[0] : "img");
+        File packFile = new File(args.length > 1 ? args[1] : "tiles.pack");
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : QuadTree.DEFAULT_MAX_DEPTH;
+        int count = write(imgDir, packFile, maxDepth);
+        System.out.println("Packed " + count + " tiles from " + imgDir + " into " + packFile);
+    }
+
+    /** Supplies the encoded bytes of one tile while a pack is written, or null to skip it. */
+    public interface TileBytes {
+        byte[] get() throws IOException;
+    }
+
+    /** InputStream over the remaining bytes of a ByteBuffer. */
+    static class ByteBufferInputStream extends InputStream {
+
+        /** Bytes left to read. */
+        private final ByteBuffer buffer;
+
+        /** ByteBufferInputStream constructor. */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
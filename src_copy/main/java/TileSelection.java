@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of a single QuadTree query: the tiles that overlap a query window,
+ * laid out as a grid in row-major order starting from the upper left tile.
+ * A fresh TileSelection is created for every query, so it can be shared freely between threads.
+ */
+public class TileSelection {
+
+    /** Tiles of the grid, row by row from the north west corner. */
+    private final List<QuadTree.Tile> tiles;
+    /** Number of tiles in each row and column of the grid. */
+    private final int gridWidth, gridHeight;
+    /** Depth of the tiles in the QuadTree. */
+    private final int depth;
+    /** Bounding box of the whole grid. */
+    private final double ullon, ullat, lrlon, lrlat;
+
+    /** TileSelection constructor, TILES must already be in row-major order. */
+    TileSelection(List<QuadTree.Tile> tiles, int gridWidth, int gridHeight, int depth,
+                  double ullon, double ullat, double lrlon, double lrlat) {
+        this.tiles = Collections.unmodifiableList(new ArrayList<>(tiles));
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.depth = depth;
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+    }
+
+    /** Returns an empty selection for a query that overlaps no tiles. */
+    static TileSelection empty() {
+        return new TileSelection(Collections.<QuadTree.Tile>emptyList(), 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns a key naming the tile grid, equal for every selection of the same tiles:
+     * depth/column/row of the upper left tile, then the grid size.
+     */
+    public String getKey() {
+        if (isEmpty()) {
+            return "empty";
+        }
+        QuadTree.Tile upperLeft = tiles.get(0);
+        return depth + "/" + upperLeft.getX() + "/" + upperLeft.getY()
+                + "/" + gridWidth + "x" + gridHeight;
+    }
+
+    /** Returns whether no tile overlapped the query. */
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    /** Returns unmodifiable List of tiles in row-major order. */
+    public List<QuadTree.Tile> getTiles() {
+        return tiles;
+    }
+
+    /** Returns tile at column COL and row ROW of the grid. */
+    public QuadTree.Tile getTile(int col, int row) {
+        return tiles.get(row * gridWidth + col);
+    }
+
+    /** Returns number of tiles in each row. */
+    public int getGridWidth() {
+        return gridWidth;
+    }
+
+    /** Returns number of tiles in each column. */
+    public int getGridHeight() {
+        return gridHeight;
+    }
+
+    /** Returns depth of the selected tiles. */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** Returns UpperLeftLongitude of the grid. */
+    public double getUllon() {
+        return ullon;
+    }
+
+    /** Returns UpperLeftLatitude of the grid. */
+    public double getUllat() {
+        return ullat;
+    }
+
+    /** Returns LowerRightLongitude of the grid. */
+    public double getLrlon() {
+        return lrlon;
+    }
+
+    /** Returns LowerRightLatitude of the grid. */
+    public double getLrlat() {
+        return lrlat;
+    }
+
+}
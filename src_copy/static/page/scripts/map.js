@@ -10,7 +10,7 @@
 var params = {ullat: 37.88, ullon: -122.27625, lrlat: 37.83, lrlon: -122.22,
               w: $(window).width(), h: $(window).height()};
 var route_params = {};
-var map; var dest;
+var map; var tiles; var dest;
 var tx = 0; var ty = 0;
 var rtx; var rty;
 var markers = [];
@@ -35,9 +35,11 @@ $( document ).ready(function() {
     } else {
         host = "http://localhost:4567"
     }
-    var raster_server = host + "/raster"
+    var raster_server = host + "/raster/image"
+    var tile_server = host + "/tiles"
     var search = host + "/search"
     map = document.getElementById("map");
+    tiles = document.getElementById("tiles");
     dest = document.getElementById("dest");
     dest.style.visibility = 'hidden';
     params["lrlon"] = real_lrlon();
@@ -254,39 +256,104 @@ $( document ).ready(function() {
     }
 
     function updateImg() {
+        // Rasters with a route are drawn by the server; without one the browser assembles the
+        // view from individual tiles, which it caches across pans and zooms.
+        if (route_params["start_lon"] && route_params["end_lon"]) {
+            updateRaster();
+        } else {
+            updateTiles();
+        }
+    }
+
+    function updateRaster() {
         // Synchronous ajax call for image update. Could be async for better experience
         // but then user spam locks up the server.
+        // The image comes back as the raw response body with the raster parameters in headers,
+        // read as a binary string since synchronous requests cannot ask for a blob. Its type,
+        // which depends on the server's raster format, is in the Content-Type header.
+        var xhr = new XMLHttpRequest();
+        xhr.open("GET", raster_server + "?" + $.param(jQuery.extend(params, route_params)), false);
+        xhr.overrideMimeType("text/plain; charset=x-user-defined");
+        xhr.send();
+        if (xhr.status == 200 && xhr.getResponseHeader("X-Query-Success") === "true") {
+            console.log("Updating map");
+            var body = xhr.responseText;
+            var bytes = new Uint8Array(body.length);
+            for (var i = 0; i < body.length; i++) {
+                bytes[i] = body.charCodeAt(i) & 0xff;
+            }
+            if (map.src.indexOf("blob:") === 0) {
+                URL.revokeObjectURL(map.src);
+            }
+            var type = xhr.getResponseHeader("Content-Type") || "image/jpeg";
+            map.src = URL.createObjectURL(new Blob([bytes], {type: type}));
+            map.style.visibility = 'visible';
+            tiles.style.visibility = 'hidden';
+            setBounds(parseFloat(xhr.getResponseHeader("X-Raster-Ul-Lon")),
+                      parseFloat(xhr.getResponseHeader("X-Raster-Ul-Lat")),
+                      parseFloat(xhr.getResponseHeader("X-Raster-Lr-Lon")),
+                      parseFloat(xhr.getResponseHeader("X-Raster-Lr-Lat")),
+                      parseInt(xhr.getResponseHeader("X-Depth")),
+                      parseInt(xhr.getResponseHeader("X-Raster-Width")),
+                      parseInt(xhr.getResponseHeader("X-Raster-Height")));
+        }
+    }
+
+    function updateTiles() {
+        // Synchronous for the same reason as updateRaster; only the manifest is synchronous,
+        // the tiles themselves load in the background and are revalidated with their ETags.
         $.get({
             async: false,
-            url: raster_server,
-            data: jQuery.extend(params, route_params),
+            url: tile_server + "/manifest",
+            data: params,
             success: function(data) {
-                if (data.query_success) {
-                    console.log("Updating map");
-                    map.src = "data:image/jpg;base64," + data.b64_encoded_image_data;
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params["ullon"] - ullon_bound) * (1 / wdpp);
-                    ty = (params["ullat"] - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params["end_lon"] - params["ullon"]) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params["end_lat"] - params["ullat"]) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
+                if (!data.query_success) {
+                    return;
+                }
+                console.log("Updating tiles");
+                var size = data.tile_size;
+                var cells = [];
+                for (var i = 0; i < data.tiles.length; i++) {
+                    var cell = document.createElement("img");
+                    cell.src = host + data.tiles[i];
+                    cell.className = "tile";
+                    cell.style.left = (i % data.grid_width) * size + "px";
+                    cell.style.top = Math.floor(i / data.grid_width) * size + "px";
+                    cell.ondragstart = function() { return false; };
+                    cells.push(cell);
                 }
+                $(tiles).empty().append(cells);
+                tiles.style.visibility = 'visible';
+                map.style.visibility = 'hidden';
+                setBounds(data.raster_ul_lon, data.raster_ul_lat,
+                          data.raster_lr_lon, data.raster_lr_lat, data.depth,
+                          data.grid_width * size, data.grid_height * size);
             },
             dataType: "json"
         });
     }
 
+    function setBounds(ul_lon, ul_lat, lr_lon, lr_lat, depth, width, height) {
+        ullon_bound = ul_lon;
+        ullat_bound = ul_lat;
+        lrlon_bound = lr_lon;
+        lrlat_bound = lr_lat;
+        current_level = depth;
+        img_w = width;
+        img_h = height;
+        wdpp = (lrlon_bound - ullon_bound) / img_w;
+        hdpp = (ullat_bound - lrlat_bound) / img_h;
+        // Compute initial transform
+        tx = - (params["ullon"] - ullon_bound) * (1 / wdpp);
+        ty = (params["ullat"] - ullat_bound) * (1 / hdpp);
+        rtx = (route_params["end_lon"] - params["ullon"]) * (1 / wdpp) - dest.width / 2 - tx;
+        rty = - (route_params["end_lat"] - params["ullat"]) * (1 / hdpp) - dest.height - ty;
+        updateMarkers();
+    }
+
     function updateT() {
         map.style.transform = "translateX(" + tx + "px) translateY(" + ty + "px)";
+        tiles.style.transform = map.style.transform;
         dest.style.transform = "translateX(" + (tx+rtx) + "px) translateY(" + (ty+rty) + "px)";
         for (var i = 0; i < markers.length; i++) {
             marker = markers[i];
@@ -0,0 +1,103 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BidirectionalRouterTest {
+
+    private static void assertMatchesDijkstra(RoadGraph graph, Heuristic heuristic) {
+        BidirectionalRouter router = new BidirectionalRouter(graph, heuristic);
+        Random random = new Random(11);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double expected = TestGraphs.dijkstra(graph, source)[target];
+            RouteResult result = router.route(source, target);
+            if (Double.isInfinite(expected)) {
+                assertTrue(result.isEmpty());
+                continue;
+            }
+            assertEquals(expected, result.getDistance(), 1e-9);
+            int[] path = result.getPath();
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            assertEquals(expected, TestGraphs.pathLength(graph, path), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        RoadGraph graph = TestGraphs.grid(40, 30, 3);
+        assertMatchesDijkstra(graph, Heuristic.euclidean(graph));
+        assertMatchesDijkstra(graph, Landmarks.select(graph, 8));
+    }
+
+    private static void assertSettlesFewerNodes(RoadGraph graph, Heuristic heuristic) {
+        RouteEngine bidirectional = new BidirectionalRouter(graph, heuristic);
+        RouteEngine forward = new Router(graph, heuristic);
+        long bidirectionalSettled = 0, forwardSettled = 0;
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            bidirectionalSettled += bidirectional.route(source, target).getSettled();
+            forwardSettled += forward.route(source, target).getSettled();
+        }
+        assertTrue(bidirectionalSettled < forwardSettled);
+    }
+
+    @Test
+    public void testSettlesFewerNodesThanOneDirection() {
+        RoadGraph graph = TestGraphs.grid(60, 60, 5);
+        /* Only the uninformed search gains; with euclidean or landmark heuristics both
+         * directions settle about as many nodes as Router, as BidirectionalRouter notes. */
+        assertSettlesFewerNodes(graph, (node, target) -> 0);
+    }
+
+    @Test
+    public void testRouteToNeighbor() {
+        RoadGraph graph = TestGraphs.grid(5, 5, 1);
+        int target = graph.target(graph.firstEdge(7));
+        RouteResult result = new BidirectionalRouter(graph, Heuristic.euclidean(graph))
+                .route(7, target);
+        assertArrayEquals(new int[] {7, target}, result.getPath());
+        assertEquals(0, new BidirectionalRouter(graph, Heuristic.euclidean(graph))
+                .route(7, 7).getDistance(), 0);
+    }
+
+    private static void assertMatchesRouterFromSeveralEnds(RoadGraph graph,
+                                                           Heuristic heuristic) {
+        RouteEngine bidirectional = new BidirectionalRouter(graph, heuristic);
+        RouteEngine router = new Router(graph, heuristic);
+        Random random = new Random(7);
+        for (int q = 0; q < 50; q++) {
+            int[] sources = {random.nextInt(graph.size()), random.nextInt(graph.size())};
+            int[] targets = {random.nextInt(graph.size()), random.nextInt(graph.size())};
+            double[] sourceOffsets = {random.nextDouble() * 1e-3, random.nextDouble() * 1e-3};
+            double[] targetOffsets = {random.nextDouble() * 1e-3, random.nextDouble() * 1e-3};
+            RouteResult expected = router.route(sources, sourceOffsets, targets, targetOffsets);
+            RouteResult result =
+                    bidirectional.route(sources, sourceOffsets, targets, targetOffsets);
+            assertEquals(expected.isEmpty(), result.isEmpty());
+            if (expected.isEmpty()) {
+                continue;
+            }
+            assertEquals(expected.getDistance(), result.getDistance(), 1e-9);
+            int[] path = result.getPath();
+            int first = sources[0] == path[0] ? 0 : 1;
+            int last = targets[0] == path[path.length - 1] ? 0 : 1;
+            assertEquals(sources[first], path[0]);
+            assertEquals(targets[last], path[path.length - 1]);
+            assertEquals(result.getDistance(), sourceOffsets[first]
+                    + TestGraphs.pathLength(graph, path) + targetOffsets[last], 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesRouterFromSeveralEnds() {
+        RoadGraph graph = TestGraphs.grid(40, 30, 3);
+        assertMatchesRouterFromSeveralEnds(graph, Heuristic.euclidean(graph));
+        assertMatchesRouterFromSeveralEnds(graph, Landmarks.select(graph, 8));
+    }
+}
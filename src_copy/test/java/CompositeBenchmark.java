@@ -0,0 +1,85 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Compares the old Graphics.drawImage loop of getMapRaster with the packed pixel copies of
+ * RasterCompositor on a synthetic grid of tiles. Run with main; no img/ folder is needed.
+ * Usage: CompositeBenchmark [gridWidth] [gridHeight] [iterations]
+ */
+public class CompositeBenchmark {
+
+    private static final int TILE_SIZE = MapServer.TILE_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        int gridWidth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int gridHeight = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+        int depth = 4;
+        QuadTree.Tile first = quadTree.getTile(depth, 0, 0);
+        QuadTree.Tile last = quadTree.getTile(depth, gridWidth - 1, gridHeight - 1);
+        TileSelection selection = quadTree.query(first.getUllon(), first.getUllat(),
+                last.getLrlon() - 1e-9, last.getLrlat() + 1e-9,
+                (first.getLrlon() - first.getUllon()) / TILE_SIZE);
+
+        /* PNG tiles decode as 3 byte BGR; the compositor keeps them as packed ints. */
+        BufferedImage decoded = randomTile(BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage packed = RasterCompositor.toIntRgb(decoded);
+
+        RasterCompositor sequential = new RasterCompositor(TILE_SIZE, 1);
+        for (int i = 0; i < iterations / 4; i++) {
+            drawImageLoop(selection, decoded);
+            sequential.composite(selection, tile -> packed);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            drawImageLoop(selection, decoded);
+        }
+        long drawImage = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sequential.composite(selection, tile -> packed);
+        }
+        long arraycopy = System.nanoTime() - start;
+
+        System.out.printf("%dx%d tiles, %d rasters%n", gridWidth, gridHeight, iterations);
+        System.out.printf("Graphics.drawImage: %.3f ms/raster%n", drawImage / 1e6 / iterations);
+        System.out.printf("System.arraycopy:   %.3f ms/raster%n", arraycopy / 1e6 / iterations);
+        System.out.printf("speedup: %.1fx%n", (double) drawImage / arraycopy);
+    }
+
+    /** The compositing loop of getMapRaster before packed tiles. */
+    private static BufferedImage drawImageLoop(TileSelection selection, BufferedImage tile) {
+        BufferedImage raster = new BufferedImage(TILE_SIZE * selection.getGridWidth(),
+                TILE_SIZE * selection.getGridHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics graph = raster.getGraphics();
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < selection.getTiles().size(); i++) {
+            graph.drawImage(tile, x, y, null);
+            x += TILE_SIZE;
+            if (x > raster.getWidth() - TILE_SIZE) {
+                x = 0;
+                y += TILE_SIZE;
+            }
+        }
+        graph.dispose();
+        return raster;
+    }
+
+    private static BufferedImage randomTile(int type) {
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, type);
+        Random random = new Random(61);
+        for (int x = 0; x < TILE_SIZE; x++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                tile.setRGB(x, y, random.nextInt());
+            }
+        }
+        return tile;
+    }
+}
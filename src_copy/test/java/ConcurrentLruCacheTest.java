@@ -0,0 +1,87 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOverBudget() throws Exception {
+        ConcurrentLruCache<String, String> cache =
+                new ConcurrentLruCache<>(10, (key, value) -> value.length());
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.getIfPresent("a"));
+        cache.put("c", "cccc");
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("aaaa", cache.getIfPresent("a"));
+        assertEquals("cccc", cache.getIfPresent("c"));
+        assertEquals(8, cache.weight());
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testGetLoadsOnce() throws Exception {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(100);
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(4, (int) cache.get(2, key -> calls.incrementAndGet() * key * 2));
+        assertEquals(4, (int) cache.get(2, key -> calls.incrementAndGet() * key * 2));
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.loadCount());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(100);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConcurrentLruCache.Loader<String, String> slow = key -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return key + "!";
+        };
+        String[] results = new String[2];
+        Thread first = new Thread(() -> results[0] = load(cache, slow));
+        first.start();
+        started.await();
+        Thread second = new Thread(() -> results[1] = load(cache, slow));
+        second.start();
+        while (second.getState() != Thread.State.WAITING && second.isAlive()) {
+            Thread.yield();
+        }
+        release.countDown();
+        first.join();
+        second.join();
+        assertEquals("tile!", results[0]);
+        assertEquals("tile!", results[1]);
+        assertEquals(1, calls.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadFailureIsRethrown() throws Exception {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(100);
+        cache.get("missing", key -> {
+            throw new IOException("no such tile");
+        });
+    }
+
+    private static String load(ConcurrentLruCache<String, String> cache,
+                               ConcurrentLruCache.Loader<String, String> loader) {
+        try {
+            return cache.get("tile", loader);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContractionHierarchyTest {
+
+    private static void assertMatchesDijkstra(RoadGraph graph, RouteEngine engine, long seed) {
+        Random random = new Random(seed);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double expected = TestGraphs.dijkstra(graph, source)[target];
+            RouteResult result = engine.route(source, target);
+            if (Double.isInfinite(expected)) {
+                assertTrue(result.isEmpty());
+                continue;
+            }
+            assertEquals(expected, result.getDistance(), 1e-9);
+            int[] path = result.getPath();
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            assertEquals(expected, TestGraphs.pathLength(graph, path), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        RoadGraph graph = TestGraphs.grid(40, 30, 3);
+        ContractionHierarchy ch = ContractionHierarchy.build(graph);
+        assertMatchesDijkstra(graph, ch, 11);
+        assertEquals(0, ch.route(7, 7).getDistance(), 0);
+    }
+
+    @Test
+    public void testSettlesFewerNodesThanAStar() {
+        RoadGraph graph = TestGraphs.grid(60, 60, 5);
+        ContractionHierarchy ch = ContractionHierarchy.build(graph);
+        Router router = new Router(graph);
+        long chSettled = 0, aStarSettled = 0;
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            chSettled += ch.route(source, target).getSettled();
+            aStarSettled += router.route(source, target).getSettled();
+        }
+        assertTrue(chSettled < aStarSettled);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        RoadGraph graph = TestGraphs.grid(20, 20, 7);
+        File file = File.createTempFile("graph", ".ch");
+        file.deleteOnExit();
+        ContractionHierarchy.build(graph).save(file);
+
+        ContractionHierarchy loaded = ContractionHierarchy.load(graph, file);
+        assertMatchesDijkstra(graph, loaded, 4);
+        try {
+            ContractionHierarchy.load(TestGraphs.grid(20, 20, 8), file);
+            fail("Loaded a hierarchy built for another graph");
+        } catch (java.io.IOException expected) {
+            assertTrue(expected.getMessage().contains("another graph"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeRTreeTest {
+
+    /** Returns the squared distance from (LON, LAT) to the nearest segment of GRAPH. */
+    private static double nearestSegment(RoadGraph graph, double lon, double lat) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int u = 0; u < graph.size(); u++) {
+            for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+                int v = graph.target(e);
+                best = Math.min(best, RoutePolyline.squaredSegmentDistance(lon, lat,
+                        graph.lon(u), graph.lat(u), graph.lon(v), graph.lat(v)));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        RoadGraph graph = TestGraphs.grid(50, 40, 6);
+        EdgeRTree tree = EdgeRTree.build(graph);
+        assertEquals(graph.edgeCount() / 2, tree.size());
+        Random random = new Random(3);
+        for (int q = 0; q < 300; q++) {
+            double lon = -122.305 + random.nextDouble() * 0.06;
+            double lat = 37.855 + random.nextDouble() * 0.04;
+            EdgeRTree.Snap snap = tree.nearest(lon, lat);
+            double dx = snap.getLon() - lon, dy = snap.getLat() - lat;
+            assertEquals(nearestSegment(graph, lon, lat), dx * dx + dy * dy, 1e-15);
+
+            int from = snap.getFrom(), to = snap.getTo();
+            assertEquals(to, graph.target(snap.getEdge()));
+            double f = snap.getFraction();
+            assertEquals(graph.lon(from) + f * (graph.lon(to) - graph.lon(from)),
+                    snap.getLon(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        EdgeRTree tree = EdgeRTree.build(new RoadGraph.Builder().build());
+        assertEquals(0, tree.size());
+        assertNull(tree.nearest(0, 0));
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IndexedMinHeapTest {
+
+    @Test
+    public void testPollsInKeyOrderAfterDecreases() {
+        Random random = new Random(7);
+        int n = 500;
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextDouble();
+            heap.insertOrDecrease(i, keys[i]);
+        }
+        for (int i = 0; i < n; i += 3) {
+            keys[i] /= 2;
+            heap.insertOrDecrease(i, keys[i]);
+            heap.insertOrDecrease(i, keys[i] * 4);
+        }
+        assertEquals(n, heap.size());
+
+        double[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < n; i++) {
+            assertEquals(sorted[i], heap.minKey(), 0);
+            int item = heap.poll();
+            assertEquals(sorted[i], keys[item], 0);
+            assertFalse(heap.contains(item));
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        IndexedMinHeap heap = new IndexedMinHeap(4);
+        heap.insertOrDecrease(1, 1.0);
+        heap.insertOrDecrease(3, 0.5);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(3));
+        heap.insertOrDecrease(3, 2.0);
+        assertEquals(2.0, heap.minKey(), 0);
+    }
+}
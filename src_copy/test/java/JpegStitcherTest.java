@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JpegStitcherTest {
+
+    private static final int SIZE = 256;
+
+    /** Returns a tile of smooth gradients that differ from tile to tile. */
+    private static BufferedImage tileImage(int seed) {
+        BufferedImage im = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                im.setRGB(x, y, (seed * 40) << 16 | x << 8 | (y + seed * 30) % 256);
+            }
+        }
+        return im;
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    @Test
+    public void testStitchedGridDecodesToTiles() throws Exception {
+        int gridWidth = 3, gridHeight = 2;
+        List<ByteBuffer> tiles = new ArrayList<>();
+        List<BufferedImage> decodedTiles = new ArrayList<>();
+        for (int i = 0; i < gridWidth * gridHeight; i++) {
+            byte[] jpeg = JpegStitcher.encodeTile(tileImage(i), 0.9f);
+            tiles.add(ByteBuffer.wrap(jpeg));
+            decodedTiles.add(decode(jpeg));
+        }
+
+        BufferedImage stitched = decode(JpegStitcher.stitch(tiles, gridWidth, gridHeight));
+        assertEquals(gridWidth * SIZE, stitched.getWidth());
+        assertEquals(gridHeight * SIZE, stitched.getHeight());
+        /* Chroma upsampling may blend across tile seams, so compare away from them. */
+        for (int x = 0; x < stitched.getWidth(); x += 3) {
+            for (int y = 0; y < stitched.getHeight(); y += 3) {
+                if (x % SIZE < 16 || x % SIZE >= SIZE - 16
+                        || y % SIZE < 16 || y % SIZE >= SIZE - 16) {
+                    continue;
+                }
+                BufferedImage tile = decodedTiles.get((y / SIZE) * gridWidth + x / SIZE);
+                assertEquals(tile.getRGB(x % SIZE, y % SIZE), stitched.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsMismatchedTables() throws Exception {
+        JpegStitcher.stitch(Arrays.asList(
+                ByteBuffer.wrap(JpegStitcher.encodeTile(tileImage(0), 0.9f)),
+                ByteBuffer.wrap(JpegStitcher.encodeTile(tileImage(1), 0.5f))), 2, 1);
+    }
+}
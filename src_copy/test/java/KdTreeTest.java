@@ -0,0 +1,60 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KdTreeTest {
+
+    /** Returns the indices of all points, nearest (X, Y) first, ties by index. */
+    private static Integer[] byDistance(double[] xs, double[] ys, double x, double y) {
+        Integer[] order = new Integer[xs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) ->
+                (xs[i] - x) * (xs[i] - x) + (ys[i] - y) * (ys[i] - y)));
+        return order;
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(17);
+        int n = 2000;
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            /* Round some coordinates so that ties and duplicate points occur. */
+            xs[i] = -122.3 + Math.round(random.nextDouble() * 500) / 10000.0;
+            ys[i] = 37.85 + random.nextDouble() * 0.05;
+        }
+        KdTree tree = new KdTree(xs, ys);
+        assertEquals(n, tree.size());
+        for (int q = 0; q < 200; q++) {
+            double x = -122.31 + random.nextDouble() * 0.07;
+            double y = 37.84 + random.nextDouble() * 0.07;
+            Integer[] expected = byDistance(xs, ys, x, y);
+            assertEquals((int) expected[0], tree.nearest(x, y));
+            int[] nearest = tree.kNearest(x, y, 10);
+            assertEquals(10, nearest.length);
+            for (int i = 0; i < nearest.length; i++) {
+                assertEquals((int) expected[i], nearest[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicatePointsPreferFirst() {
+        KdTree tree = new KdTree(new double[] {1, 0, 1, 1}, new double[] {1, 0, 1, 1});
+        assertEquals(0, tree.nearest(0.9, 0.9));
+        assertArrayEquals(new int[] {0, 2, 3, 1}, tree.kNearest(0.9, 0.9, 8));
+    }
+
+    @Test
+    public void testEmpty() {
+        KdTree tree = new KdTree(new double[0], new double[0]);
+        assertEquals(-1, tree.nearest(0, 0));
+        assertEquals(0, tree.kNearest(0, 0, 3).length);
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LandmarksTest {
+
+    /**
+     * Returns a WIDTH by HEIGHT grid split down the middle by a river, crossed by a single
+     * bridge at the bottom row.
+     */
+    private static RoadGraph river(int width, int height) {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                builder.addNode(y * width + x, -122.30 + 0.001 * x, 37.89 - 0.001 * y);
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x + 1 < width && (x + 1 != width / 2 || y == height - 1)) {
+                    builder.addEdge(y * width + x, y * width + x + 1);
+                }
+                if (y + 1 < height) {
+                    builder.addEdge(y * width + x, (y + 1) * width + x);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testEstimatesAreLowerBounds() {
+        RoadGraph graph = TestGraphs.grid(30, 30, 4);
+        Landmarks landmarks = Landmarks.select(graph, 8);
+        assertEquals(8, landmarks.getLandmarks().length);
+        Random random = new Random(5);
+        for (int q = 0; q < 20; q++) {
+            int target = random.nextInt(graph.size());
+            double[] dist = TestGraphs.dijkstra(graph, target);
+            for (int v = 0; v < graph.size(); v++) {
+                if (!Double.isInfinite(dist[v])) {
+                    assertTrue(landmarks.estimate(v, target) <= dist[v] + 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        RoadGraph graph = TestGraphs.grid(40, 30, 3);
+        Router router = new Router(graph, Landmarks.select(graph, Landmarks.DEFAULT_COUNT));
+        Random random = new Random(11);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double expected = TestGraphs.dijkstra(graph, source)[target];
+            RouteResult result = router.route(source, target);
+            if (Double.isInfinite(expected)) {
+                assertTrue(result.isEmpty());
+                continue;
+            }
+            assertEquals(expected, result.getDistance(), 1e-9);
+            assertEquals(expected, TestGraphs.pathLength(graph, result.getPath()), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSettlesFewerNodesAroundARiver() {
+        RoadGraph graph = river(40, 40);
+        int source = graph.indexOf(19);
+        int target = graph.indexOf(20);
+        RouteResult euclidean = new Router(graph).route(source, target);
+        RouteResult alt = new Router(graph, Landmarks.select(graph, 4)).route(source, target);
+        assertEquals(euclidean.getDistance(), alt.getDistance(), 1e-9);
+        assertTrue(alt.getSettled() < euclidean.getSettled() / 4);
+    }
+}
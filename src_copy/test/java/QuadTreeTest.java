@@ -7,13 +7,85 @@ import static org.junit.Assert.*;
  */
 public class QuadTreeTest {
 
-    @Test
-    public void testGetOverlapTiles() throws Exception {
+    private static final double ULLON = MapServer.ROOT_ULLON, ULLAT = MapServer.ROOT_ULLAT,
+            LRLON = MapServer.ROOT_LRLON, LRLAT = MapServer.ROOT_LRLAT;
+
+    private final QuadTree quadTree = new QuadTree(ULLON, ULLAT, LRLON, LRLAT);
 
+    @Test
+    public void testQueryRoot() throws Exception {
+        TileSelection selection = quadTree.query(ULLON, ULLAT, LRLON, LRLAT, 1);
+        assertEquals(1, selection.getGridWidth());
+        assertEquals(1, selection.getGridHeight());
+        assertEquals(0, selection.getDepth());
+        assertEquals("img/root.png", selection.getTile(0, 0).getImgName());
     }
 
     @Test
     public void testIntersectionQuery() throws Exception {
+        double dpp = (LRLON - ULLON) / 512;
+        TileSelection selection = quadTree.query(ULLON, ULLAT, LRLON, LRLAT, dpp);
+        assertEquals(2, selection.getGridWidth());
+        assertEquals(2, selection.getGridHeight());
+        assertEquals(1, selection.getDepth());
+        assertEquals("img/1.png", selection.getTile(0, 0).getImgName());
+        assertEquals("img/2.png", selection.getTile(1, 0).getImgName());
+        assertEquals("img/3.png", selection.getTile(0, 1).getImgName());
+        assertEquals("img/4.png", selection.getTile(1, 1).getImgName());
+        assertEquals(ULLON, selection.getUllon(), 0);
+        assertEquals(LRLAT, selection.getLrlat(), 0);
+    }
+
+    @Test
+    public void testQueryIsRequestScoped() throws Exception {
+        double dpp = (LRLON - ULLON) / 512;
+        TileSelection first = quadTree.query(ULLON, ULLAT, LRLON, LRLAT, dpp);
+        TileSelection second = quadTree.query(ULLON, ULLAT, ULLON + 0.001, ULLAT - 0.001, dpp);
+        assertEquals(4, first.getTiles().size());
+        assertEquals(1, second.getTiles().size());
+    }
+
+    @Test
+    public void testQueryOutsideRoot() throws Exception {
+        TileSelection selection = quadTree.query(0, 1, 1, 0, 1);
+        assertTrue(selection.isEmpty());
+    }
 
+    @Test
+    public void testInvertedQuery() throws Exception {
+        double dpp = (LRLON - ULLON) / 512;
+        double midLon = (ULLON + LRLON) / 2, midLat = (ULLAT + LRLAT) / 2;
+        assertTrue(quadTree.query(LRLON - 0.01, ULLAT, ULLON + 0.01, LRLAT, dpp).isEmpty());
+        assertTrue(quadTree.query(ULLON, LRLAT + 0.01, LRLON, ULLAT - 0.01, dpp).isEmpty());
+        assertTrue(quadTree.query(midLon + 0.01, midLat, midLon - 0.01, midLat, dpp).isEmpty());
+    }
+
+    @Test
+    public void testImgName() throws Exception {
+        assertEquals("img/root.png", QuadTree.imgName(0, 0, 0));
+        assertEquals("img/4.png", QuadTree.imgName(1, 1, 1));
+        assertEquals("img/23.png", QuadTree.imgName(2, 2, 1));
+        assertEquals("img/1234444.png", QuadTree.imgName(7, 47, 31));
+    }
+
+    @Test
+    public void testConfigurableDepth() throws Exception {
+        QuadTree shallow = new QuadTree(ULLON, ULLAT, LRLON, LRLAT, 2);
+        TileSelection selection = shallow.query(ULLON, ULLAT, LRLON, LRLAT, 1e-9);
+        assertEquals(2, selection.getDepth());
+        assertEquals(16, selection.getTiles().size());
+        assertFalse(shallow.contains(3, 0, 0));
+    }
+
+    @Test
+    public void testSelectionKey() throws Exception {
+        double dpp = (LRLON - ULLON) / 2048;
+        QuadTree.Tile tile = quadTree.getTile(3, 2, 5);
+        TileSelection first = quadTree.query(tile.getUllon() + 1e-6, tile.getUllat() - 1e-6,
+                tile.getLrlon() - 1e-6, tile.getLrlat() + 1e-6, dpp);
+        TileSelection second = quadTree.query(tile.getUllon() + 2e-6, tile.getUllat() - 2e-6,
+                tile.getLrlon() - 2e-6, tile.getLrlat() + 2e-6, dpp);
+        assertEquals("3/2/5/1x1", first.getKey());
+        assertEquals(first.getKey(), second.getKey());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class RasterCompositorTest {
+
+    private final QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+            MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+
+    /** Returns a tile whose pixels encode the tile's position and their own. */
+    private static BufferedImage tileImage(QuadTree.Tile tile, int type) {
+        BufferedImage im = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE, type);
+        for (int x = 0; x < im.getWidth(); x++) {
+            for (int y = 0; y < im.getHeight(); y++) {
+                im.setRGB(x, y, (tile.getX() * 40 + tile.getY()) << 16 | x << 8 | y);
+            }
+        }
+        return im;
+    }
+
+    private void assertSameRaster(int threads) throws Exception {
+        TileSelection selection = quadTree.query(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT,
+                (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON) / 1024);
+        RasterCompositor compositor = new RasterCompositor(MapServer.TILE_SIZE, threads);
+        BufferedImage drawn = compositor.composite(selection,
+                tile -> tileImage(tile, BufferedImage.TYPE_3BYTE_BGR));
+        BufferedImage copied = compositor.composite(selection,
+                tile -> RasterCompositor.toIntRgb(tileImage(tile, BufferedImage.TYPE_3BYTE_BGR)));
+        compositor.shutdown();
+
+        assertEquals(1024, copied.getWidth());
+        assertEquals(1024, copied.getHeight());
+        for (int x = 0; x < copied.getWidth(); x += 7) {
+            for (int y = 0; y < copied.getHeight(); y += 5) {
+                assertEquals(drawn.getRGB(x, y), copied.getRGB(x, y));
+                int expected = ((x / 256) * 40 + y / 256) << 16 | (x % 256) << 8 | (y % 256);
+                assertEquals(expected, copied.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testSequentialComposite() throws Exception {
+        assertSameRaster(1);
+    }
+
+    @Test
+    public void testParallelComposite() throws Exception {
+        assertSameRaster(4);
+    }
+
+    @Test
+    public void testToIntRgbKeepsPackedImages() throws Exception {
+        BufferedImage packed = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        assertSame(packed, RasterCompositor.toIntRgb(packed));
+        BufferedImage indexed = new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_INDEXED);
+        assertTrue(RasterCompositor.isPackedIntRgb(RasterCompositor.toIntRgb(indexed)));
+    }
+
+    @Test
+    public void testResampleRegion() throws Exception {
+        BufferedImage raster = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < raster.getWidth(); x++) {
+            for (int y = 0; y < raster.getHeight(); y++) {
+                raster.setRGB(x, y, x < 256 ? 0xFF0000 : 0x0000FF);
+            }
+        }
+        BufferedImage cropped = RasterCompositor.resample(raster, 128, 64, 256, 128, 100, 50);
+        assertEquals(100, cropped.getWidth());
+        assertEquals(50, cropped.getHeight());
+        assertEquals(0xFF0000, cropped.getRGB(10, 25) & 0xFFFFFF);
+        assertEquals(0x0000FF, cropped.getRGB(90, 25) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testToTileScalesOtherSizes() throws Exception {
+        BufferedImage small = new BufferedImage(100, 80, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage tile = RasterCompositor.toTile(small, MapServer.TILE_SIZE);
+        assertEquals(MapServer.TILE_SIZE, tile.getWidth());
+        assertEquals(MapServer.TILE_SIZE, tile.getHeight());
+        assertTrue(RasterCompositor.isPackedIntRgb(tile));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCopyPixelsRejectsOversizedTiles() {
+        BufferedImage tile = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        RasterCompositor.copyPixels(tile, new int[4 * 8], 0, 4);
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class RasterEncoderTest {
+
+    private static BufferedImage gradient() {
+        BufferedImage im = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < im.getWidth(); x++) {
+            for (int y = 0; y < im.getHeight(); y++) {
+                im.setRGB(x, y, x * 4 << 16 | y * 8 << 8 | 128);
+            }
+        }
+        return im;
+    }
+
+    private static BufferedImage decode(RasterEncoder.Buffer buffer) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(buffer.array(), 0, buffer.size()));
+    }
+
+    @Test
+    public void testReusesBufferAndWriter() throws Exception {
+        RasterEncoder encoder = new RasterEncoder("jpg", 1.0f);
+        RasterEncoder.Buffer first = encoder.encode(gradient(), 1.0f);
+        byte[] firstBytes = first.toByteArray();
+        RasterEncoder.Buffer second = encoder.encode(gradient(), 1.0f);
+        assertSame(first, second);
+        assertArrayEquals(firstBytes, second.toByteArray());
+        assertEquals(64, decode(second).getWidth());
+        assertEquals(2, encoder.encodeCount());
+        assertEquals("image/jpeg", encoder.contentType());
+    }
+
+    @Test
+    public void testLowerQualityIsSmaller() throws Exception {
+        RasterEncoder encoder = new RasterEncoder("jpg", 1.0f);
+        int best = encoder.encode(gradient(), 1.0f).size();
+        int low = encoder.encode(gradient(), 0.3f).size();
+        assertTrue(low < best);
+    }
+
+    @Test
+    public void testBmpIsLossless() throws Exception {
+        RasterEncoder encoder = new RasterEncoder("bmp", 1.0f);
+        BufferedImage decoded = decode(encoder.encode(gradient(), 0.1f));
+        assertEquals(gradient().getRGB(40, 20), decoded.getRGB(40, 20));
+        assertEquals("image/bmp", encoder.contentType());
+        assertFalse(encoder.usesQuality());
+        assertTrue(new RasterEncoder("jpg", 1.0f).usesQuality());
+    }
+
+    @Test
+    public void testReleasesOversizedBuffers() throws Exception {
+        RasterEncoder encoder = new RasterEncoder("bmp", 1.0f);
+        RasterEncoder.Buffer small = encoder.encode(gradient(), 1.0f);
+        encoder.releaseBuffer();
+        assertSame(small, encoder.encode(gradient(), 1.0f));
+
+        /* A 2000 by 1500 bmp takes 9MB, past what a thread keeps between encodes. */
+        BufferedImage large = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+        RasterEncoder.Buffer grown = encoder.encode(large, 1.0f);
+        assertTrue(grown.size() > 8 << 20);
+        encoder.releaseBuffer();
+        assertNotSame(grown, encoder.encode(gradient(), 1.0f));
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class RawTileStoreTest {
+
+    private static final int TILE_SIZE = 4;
+
+    @Test
+    public void testWriteAndCopy() throws Exception {
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 2);
+        File file = File.createTempFile("tiles", ".raw");
+        file.deleteOnExit();
+
+        /* Every tile but 2/3/3 decodes to pixels naming their tile, row and column. */
+        int written = RawTileStore.write(tile -> {
+            if (tile.getDepth() == 2 && tile.getX() == 3 && tile.getY() == 3) {
+                throw new IOException("missing");
+            }
+            BufferedImage im = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_3BYTE_BGR);
+            for (int x = 0; x < TILE_SIZE; x++) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    im.setRGB(x, y, tile.hashCode() << 8 | y << 4 | x);
+                }
+            }
+            return im;
+        }, quadTree, TILE_SIZE, file);
+        assertEquals(1 + 4 + 15, written);
+
+        RawTileStore store = new RawTileStore(file);
+        assertTrue(store.contains(0, 0, 0));
+        assertTrue(store.contains(2, 2, 3));
+        assertFalse(store.contains(2, 3, 3));
+        assertFalse(store.contains(3, 0, 0));
+
+        QuadTree.Tile tile = quadTree.getTile(2, 1, 2);
+        int stride = 10;
+        int[] pixels = new int[stride * TILE_SIZE + 3];
+        store.copyTile(tile, pixels, 3, stride);
+        for (int x = 0; x < TILE_SIZE; x++) {
+            for (int y = 0; y < TILE_SIZE; y++) {
+                int expected = tile.hashCode() << 8 | y << 4 | x;
+                assertEquals(expected & 0xFFFFFF, pixels[3 + y * stride + x] & 0xFFFFFF);
+            }
+        }
+        assertEquals(0, pixels[3 + TILE_SIZE]);
+    }
+
+    @Test
+    public void testRejectsBadHeaders() throws Exception {
+        assertRejected(TILE_SIZE, 15, 16);
+        assertRejected(TILE_SIZE, -1, 16);
+        assertRejected(0, 2, 16);
+        assertRejected(4097, 2, 16);
+        /* Depth 14 needs 358M presence bytes; a short file must fail before allocating them. */
+        assertRejected(TILE_SIZE, 14, 16);
+        /* Depth 2 needs 21 presence bytes after the header. */
+        assertRejected(TILE_SIZE, 2, 10);
+    }
+
+    /**
+     * Asserts that a store whose header holds TILESIZE and MAXDEPTH, followed by FLAGS
+     * presence bytes, fails to open.
+     */
+    private static void assertRejected(int tileSize, int maxDepth, int flags) throws Exception {
+        File file = File.createTempFile("tiles", ".raw");
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0x424D5254);
+            raf.writeInt(1);
+            raf.writeInt(tileSize);
+            raf.writeInt(maxDepth);
+            raf.write(new byte[flags]);
+        }
+        try {
+            new RawTileStore(file);
+            fail("Opened a store of " + tileSize + "px tiles " + maxDepth + " deep");
+        } catch (IOException e) {
+            /* Expected. */
+        }
+    }
+}
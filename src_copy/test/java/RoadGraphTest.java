@@ -0,0 +1,147 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RoadGraphTest {
+
+    /** Returns the sorted ids of the neighbors of the node with id ID. */
+    private static long[] neighbors(RoadGraph graph, long id) {
+        int i = graph.indexOf(id);
+        long[] ids = new long[graph.endEdge(i) - graph.firstEdge(i)];
+        for (int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+            ids[e - graph.firstEdge(i)] = graph.id(graph.target(e));
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testBuild() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        builder.addNode(30, 0.0, 0.0);
+        builder.addNode(10, 3.0, 4.0);
+        builder.addNode(20, 3.0, 0.0);
+        builder.addNode(40, 9.0, 9.0);
+        builder.addEdge(30, 10);
+        builder.addEdge(10, 20);
+        builder.addEdge(20, 10);
+        builder.addEdge(20, 20);
+        builder.addEdge(20, 99);
+        RoadGraph graph = builder.build();
+
+        assertEquals(3, graph.size());
+        assertEquals(4, graph.edgeCount());
+        assertEquals(-1, graph.indexOf(40));
+        assertEquals(-1, graph.indexOf(99));
+        assertEquals(10, graph.id(0));
+        assertArrayEquals(new long[] {20, 30}, neighbors(graph, 10));
+        assertArrayEquals(new long[] {10}, neighbors(graph, 20));
+        assertArrayEquals(new long[] {10}, neighbors(graph, 30));
+
+        int i = graph.indexOf(30);
+        assertEquals(5.0, graph.weight(graph.firstEdge(i)), 1e-6);
+        assertEquals(3.0, graph.lon(graph.indexOf(20)), 0);
+        assertEquals(5.0, graph.distance(i, 3.0, 4.0), 1e-12);
+    }
+
+    @Test
+    public void testMetreWeights() {
+        RoadGraph.Builder builder = new RoadGraph.Builder(true);
+        builder.addNode(1, -122.26, 37.87);
+        builder.addNode(2, -122.25, 37.87);
+        builder.addNode(3, -122.25, 37.88);
+        builder.addEdge(1, 2);
+        builder.addEdge(2, 3);
+        RoadGraph graph = builder.build();
+        assertTrue(graph.isMetres());
+
+        /* Haversine lengths: 0.01 degrees east is 877.8 m here, 0.01 degrees north 1112.0 m. */
+        int east = graph.firstEdge(graph.indexOf(1));
+        assertEquals(877.8, graph.weight(east), 0.5);
+        int north = graph.endEdge(graph.indexOf(2)) - 1;
+        assertEquals(3, graph.id(graph.target(north)));
+        assertEquals(1112.0, graph.weight(north), 0.5);
+        double straight = graph.distance(graph.indexOf(1), -122.25, 37.88);
+        assertTrue(straight <= graph.weight(east) + graph.weight(north));
+        assertEquals(1416.6, straight, 2);
+    }
+
+    @Test
+    public void testWeightsBoundDistance() {
+        for (boolean metres : new boolean[] {false, true}) {
+            RoadGraph graph = TestGraphs.grid(30, 30, 4, metres);
+            for (int i = 0; i < graph.size(); i++) {
+                for (int e = graph.firstEdge(i); e < graph.endEdge(i); e++) {
+                    int j = graph.target(e);
+                    assertTrue(graph.weight(e) >= graph.distance(i, graph.lon(j), graph.lat(j)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testComponents() {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int id = 1; id <= 7; id++) {
+            builder.addNode(id, id, 0);
+        }
+        builder.addEdge(1, 2);
+        builder.addEdge(6, 7);
+        builder.addEdge(3, 4);
+        builder.addEdge(4, 5);
+        RoadGraph graph = builder.build();
+
+        assertEquals(3, graph.componentCount());
+        assertEquals(3, graph.componentSize(0));
+        assertEquals(0, graph.component(graph.indexOf(4)));
+        assertEquals(1, graph.component(graph.indexOf(1)));
+        assertEquals(2, graph.component(graph.indexOf(7)));
+        assertTrue(graph.connected(graph.indexOf(3), graph.indexOf(5)));
+        assertFalse(graph.connected(graph.indexOf(2), graph.indexOf(6)));
+        assertTrue(graph.connected(new int[] {graph.indexOf(1), graph.indexOf(3)},
+                new int[] {graph.indexOf(5)}));
+
+        RouteResult result = new Router(graph).route(graph.indexOf(1), graph.indexOf(7));
+        assertTrue(result.isEmpty());
+        assertEquals(0, result.getSettled());
+
+        RoadGraph pruned = graph.withoutComponentsSmallerThan(3);
+        assertEquals(3, pruned.size());
+        assertEquals(4, pruned.edgeCount());
+        assertEquals(1, pruned.componentCount());
+        assertEquals(-1, pruned.indexOf(1));
+        assertArrayEquals(new long[] {3, 5}, neighbors(pruned, 4));
+        assertSame(graph, graph.withoutComponentsSmallerThan(2));
+    }
+
+    @Test
+    public void testParseOsm() throws Exception {
+        File osm = File.createTempFile("roads", ".osm");
+        String xml = "<osm>"
+                + "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>"
+                + "<node id=\"2\" lat=\"37.87\" lon=\"-122.25\"><tag k=\"name\" v=\"Cafe\"/></node>"
+                + "<node id=\"3\" lat=\"37.86\" lon=\"-122.25\"/>"
+                + "<node id=\"4\" lat=\"37.85\" lon=\"-122.24\"/>"
+                + "<way id=\"3\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way>"
+                + "<way id=\"5\"><nd ref=\"3\"/><nd ref=\"4\"/>"
+                + "<tag k=\"highway\" v=\"footway\"/></way>"
+                + "</osm>";
+        Files.write(osm.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        GraphDB db = new GraphDB(osm.getPath());
+        osm.delete();
+
+        RoadGraph graph = db.getGraph();
+        assertEquals(3, graph.size());
+        assertEquals(-1, graph.indexOf(4));
+        assertArrayEquals(new long[] {2}, neighbors(graph, 1));
+        assertArrayEquals(new long[] {1, 3}, neighbors(graph, 2));
+        assertEquals(Arrays.asList("Cafe"), db.getLocations("caf"));
+        assertEquals(2L, db.getStringNodes().get("Cafe").get(0).getId());
+    }
+}
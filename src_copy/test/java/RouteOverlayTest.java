@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+public class RouteOverlayTest {
+
+    private static final double ULLON = -122.3, ULLAT = 37.9, LRLON = -122.2, LRLAT = 37.8;
+    private static final int SIZE = 512;
+
+    private static BufferedImage background() {
+        BufferedImage im = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                im.setRGB(x, y, x << 16 | y << 8 | 0x40);
+            }
+        }
+        return im;
+    }
+
+    @Test
+    public void testOverlayMatchesDirectDrawing() {
+        double[] lons = {-122.31, -122.27, -122.25, -122.24};
+        double[] lats = {37.88, 37.86, 37.87, 37.83};
+
+        BufferedImage direct = background();
+        Graphics2D graphics2D = direct.createGraphics();
+        RouteOverlay.draw(graphics2D, lons, lats, ULLON, ULLAT, LRLON, LRLAT, SIZE, SIZE);
+        graphics2D.dispose();
+
+        BufferedImage layered = background();
+        RouteOverlay overlay = RouteOverlay.render(lons, lats, ULLON, ULLAT, LRLON, LRLAT,
+                SIZE, SIZE);
+        overlay.paint(layered);
+        assertTrue(overlay.bytes() < (long) SIZE * SIZE * Integer.BYTES);
+
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                int a = direct.getRGB(x, y), b = layered.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    assertEquals(a >> shift & 0xFF, b >> shift & 0xFF, 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRouteOffRasterIsEmpty() {
+        RouteOverlay overlay = RouteOverlay.render(new double[] {-121.0, -120.9},
+                new double[] {37.0, 37.1}, ULLON, ULLAT, LRLON, LRLAT, SIZE, SIZE);
+        assertEquals(0, overlay.bytes());
+        BufferedImage im = background();
+        overlay.paint(im);
+        assertEquals(background().getRGB(0, 0), im.getRGB(0, 0));
+    }
+}
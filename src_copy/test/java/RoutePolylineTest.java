@@ -0,0 +1,45 @@
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RoutePolylineTest {
+
+    @Test
+    public void testCollinearPointsCollapse() {
+        double[] xs = new double[100], ys = new double[100];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i;
+            ys[i] = 10 + (i % 2) * 0.1;
+        }
+        List<int[]> runs = RoutePolyline.simplify(xs, ys, 200, 200, 5, 0.5);
+        assertEquals(1, runs.size());
+        assertArrayEquals(new int[] {0, 99}, runs.get(0));
+    }
+
+    @Test
+    public void testCornersAreKept() {
+        double[] xs = {0, 50, 100, 100, 100};
+        double[] ys = {0, 0.2, 0, 50, 100};
+        List<int[]> runs = RoutePolyline.simplify(xs, ys, 200, 200, 5, 0.5);
+        assertArrayEquals(new int[] {0, 2, 4}, runs.get(0));
+    }
+
+    @Test
+    public void testSegmentsOffRasterAreClipped() {
+        double[] xs = {-500, -400, -300, 50, 150, 900, 1000, 150, 60};
+        double[] ys = {50, 50, 50, 50, 50, 50, 60, 120, 120};
+        List<int[]> runs = RoutePolyline.simplify(xs, ys, 200, 200, 5, 0.5);
+        assertEquals(2, runs.size());
+        assertArrayEquals(new int[] {2, 5}, runs.get(0));
+        assertArrayEquals(new int[] {6, 7, 8}, runs.get(1));
+    }
+
+    @Test
+    public void testRouteOffRasterHasNoRuns() {
+        double[] xs = {-50, -40, -30};
+        double[] ys = {10, 20, 30};
+        assertTrue(RoutePolyline.simplify(xs, ys, 200, 200, 5, 0.5).isEmpty());
+    }
+}
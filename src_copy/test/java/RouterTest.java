@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RouterTest {
+
+    @Test
+    public void testMatchesDijkstra() {
+        RoadGraph graph = TestGraphs.grid(40, 30, 3);
+        Router router = new Router(graph);
+        Random random = new Random(11);
+        for (int q = 0; q < 50; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double expected = TestGraphs.dijkstra(graph, source)[target];
+            RouteResult result = router.route(source, target);
+            if (Double.isInfinite(expected)) {
+                assertTrue(result.isEmpty());
+                continue;
+            }
+            assertEquals(expected, result.getDistance(), 1e-9);
+            int[] path = result.getPath();
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            assertEquals(expected, TestGraphs.pathLength(graph, path), 1e-9);
+            assertTrue(result.getSettled() <= graph.size());
+        }
+    }
+
+    @Test
+    public void testMetreWeights() {
+        RoadGraph graph = TestGraphs.grid(30, 30, 9, true);
+        Router router = new Router(graph);
+        Random random = new Random(12);
+        for (int q = 0; q < 20; q++) {
+            int source = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            double[] expected = TestGraphs.dijkstra(graph, target);
+            for (int v = 0; v < graph.size(); v++) {
+                assertTrue(graph.distance(v, graph.lon(target), graph.lat(target))
+                        <= expected[v]);
+            }
+            if (!Double.isInfinite(expected[source])) {
+                assertEquals(expected[source], router.route(source, target).getDistance(),
+                        1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testRouteToItself() {
+        RoadGraph graph = TestGraphs.grid(5, 5, 1);
+        RouteResult result = new Router(graph).route(7, 7);
+        assertArrayEquals(new int[] {7}, result.getPath());
+        assertEquals(0, result.getDistance(), 0);
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Random;
+
+/**
+ * Compares Dijkstra and A*, one way and bidirectional, with euclidean and landmark bounds,
+ * and Contraction Hierarchies on random routes over a synthetic road grid.
+ * Run with main; no OSM file is needed.
+ * Usage: RoutingBenchmark [gridWidth] [gridHeight] [routes]
+ */
+public class RoutingBenchmark {
+
+    public static void main(String[] args) {
+        int gridWidth = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int gridHeight = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int routes = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        RoadGraph graph = TestGraphs.grid(gridWidth, gridHeight, 1);
+        long start = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(graph);
+        long build = System.nanoTime() - start;
+        System.out.printf("%d nodes, %d edges, %d upward edges, contracted in %.1f s%n",
+                graph.size(), graph.edgeCount(), ch.upwardEdgeCount(), build / 1e9);
+
+        int[][] queries = new int[routes][2];
+        Random random = new Random(9);
+        for (int[] query : queries) {
+            query[0] = random.nextInt(graph.size());
+            query[1] = random.nextInt(graph.size());
+        }
+        start = System.nanoTime();
+        Landmarks landmarks = Landmarks.select(graph, Landmarks.DEFAULT_COUNT);
+        System.out.printf("%d landmarks in %.1f s%n", Landmarks.DEFAULT_COUNT,
+                (System.nanoTime() - start) / 1e9);
+        run("Dijkstra", new Router(graph, (node, target) -> 0), queries);
+        run("Bidirectional Dijkstra", new BidirectionalRouter(graph, (node, target) -> 0),
+                queries);
+        run("A*", new Router(graph), queries);
+        run("ALT", new Router(graph, landmarks), queries);
+        run("Bidirectional A*", new BidirectionalRouter(graph, Heuristic.euclidean(graph)),
+                queries);
+        run("Bidirectional ALT", new BidirectionalRouter(graph, landmarks), queries);
+        run("CH", ch, queries);
+    }
+
+    /** Prints the mean time and settled nodes of ENGINE over QUERIES, after a warmup pass. */
+    private static void run(String name, RouteEngine engine, int[][] queries) {
+        for (int[] query : queries) {
+            engine.route(query[0], query[1]);
+        }
+        long settled = 0;
+        long start = System.nanoTime();
+        for (int[] query : queries) {
+            settled += engine.route(query[0], query[1]).getSettled();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s: %.3f ms/route, %d settled/route%n", name,
+                elapsed / 1e6 / queries.length, settled / queries.length);
+    }
+}
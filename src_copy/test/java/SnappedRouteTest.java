@@ -0,0 +1,74 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SnappedRouteTest {
+
+    /** Returns the shortest distance between snaps START and END, by plain Dijkstra. */
+    private static double expected(RoadGraph graph, EdgeRTree.Snap start, EdgeRTree.Snap end) {
+        double startLength = graph.weight(start.getEdge());
+        double endLength = graph.weight(end.getEdge());
+        double[] fromStart = TestGraphs.dijkstra(graph, start.getFrom());
+        double[] fromStartTo = TestGraphs.dijkstra(graph, start.getTo());
+        double best = Double.POSITIVE_INFINITY;
+        int[] ends = {end.getFrom(), end.getTo()};
+        double[] endOffsets = {end.getFraction() * endLength,
+            (1 - end.getFraction()) * endLength};
+        for (int j = 0; j < 2; j++) {
+            best = Math.min(best, start.getFraction() * startLength + fromStart[ends[j]]
+                    + endOffsets[j]);
+            best = Math.min(best, (1 - start.getFraction()) * startLength
+                    + fromStartTo[ends[j]] + endOffsets[j]);
+        }
+        if (start.getEdge() == end.getEdge()) {
+            best = Math.min(best,
+                    Math.abs(start.getFraction() - end.getFraction()) * startLength);
+        }
+        return best;
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        RoadGraph graph = TestGraphs.grid(30, 30, 8);
+        EdgeRTree tree = EdgeRTree.build(graph);
+        RouteEngine[] engines = {new Router(graph), ContractionHierarchy.build(graph),
+            new BidirectionalRouter(graph, Heuristic.euclidean(graph))};
+        Random random = new Random(4);
+        for (int q = 0; q < 40; q++) {
+            EdgeRTree.Snap start = tree.nearest(-122.30 + random.nextDouble() * 0.03,
+                    37.86 + random.nextDouble() * 0.03);
+            EdgeRTree.Snap end = tree.nearest(-122.30 + random.nextDouble() * 0.03,
+                    37.86 + random.nextDouble() * 0.03);
+            double expected = expected(graph, start, end);
+            for (RouteEngine engine : engines) {
+                SnappedRoute route = SnappedRoute.between(graph, engine, start, end);
+                if (Double.isInfinite(expected)) {
+                    assertTrue(route.isEmpty());
+                    continue;
+                }
+                assertEquals(expected, route.getDistance(), 1e-9);
+                assertEquals(start.getLon(), route.getLons()[0], 0);
+                assertEquals(end.getLat(), route.getLats()[route.getLats().length - 1], 0);
+                int nodes = route.getNodes().length;
+                assertEquals(nodes == 0 ? 2 : nodes + 2, route.getLons().length);
+            }
+        }
+    }
+
+    @Test
+    public void testSameSegment() {
+        RoadGraph graph = TestGraphs.grid(5, 5, 1);
+        EdgeRTree tree = EdgeRTree.build(graph);
+        int u = 6, edge = graph.firstEdge(u), v = graph.target(edge);
+        double lon0 = graph.lon(u), lat0 = graph.lat(u);
+        double dlon = graph.lon(v) - lon0, dlat = graph.lat(v) - lat0;
+        EdgeRTree.Snap start = tree.nearest(lon0 + 0.4 * dlon, lat0 + 0.4 * dlat);
+        EdgeRTree.Snap end = tree.nearest(lon0 + 0.6 * dlon, lat0 + 0.6 * dlat);
+        SnappedRoute route = SnappedRoute.between(graph, new Router(graph), start, end);
+        assertEquals(0, route.getNodes().length);
+        assertEquals(2, route.getLons().length);
+        assertEquals(0.2 * graph.weight(edge), route.getDistance(), 1e-9);
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/** Synthetic road graphs and a reference shortest path search for routing tests. */
+public class TestGraphs {
+
+    /**
+     * Returns a WIDTH by HEIGHT grid of jittered nodes around Berkeley, with each node joined
+     * to its right and lower neighbors, a few diagonals, and a few missing roads.
+     */
+    public static RoadGraph grid(int width, int height, long seed) {
+        return grid(width, height, seed, false);
+    }
+
+    /** Returns the grid of grid(WIDTH, HEIGHT, SEED), weighted in metres if METRES. */
+    public static RoadGraph grid(int width, int height, long seed, boolean metres) {
+        Random random = new Random(seed);
+        RoadGraph.Builder builder = new RoadGraph.Builder(metres);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                builder.addNode(id(x, y, width), -122.30 + 0.001 * x + 0.0003 * random.nextDouble(),
+                        37.89 - 0.001 * y + 0.0003 * random.nextDouble());
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x + 1 < width && random.nextInt(10) > 0) {
+                    builder.addEdge(id(x, y, width), id(x + 1, y, width));
+                }
+                if (y + 1 < height && random.nextInt(10) > 0) {
+                    builder.addEdge(id(x, y, width), id(x, y + 1, width));
+                }
+                if (x + 1 < width && y + 1 < height && random.nextInt(5) == 0) {
+                    builder.addEdge(id(x, y, width), id(x + 1, y + 1, width));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /** Returns the OSM id of grid node (X, Y). */
+    private static long id(int x, int y, int width) {
+        return 1000L + y * width + x;
+    }
+
+    /** Returns the shortest distances from SOURCE to every node of GRAPH, by plain Dijkstra. */
+    public static double[] dijkstra(RoadGraph graph, int source) {
+        double[] dist = new double[graph.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[source] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        queue.add(new double[] {0, source});
+        while (!queue.isEmpty()) {
+            double[] top = queue.poll();
+            int node = (int) top[1];
+            if (top[0] > dist[node]) {
+                continue;
+            }
+            for (int e = graph.firstEdge(node); e < graph.endEdge(node); e++) {
+                int next = graph.target(e);
+                double d = dist[node] + graph.weight(e);
+                if (d < dist[next]) {
+                    dist[next] = d;
+                    queue.add(new double[] {d, next});
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the sum of the weights along PATH, or NaN if two of its nodes are not joined. */
+    public static double pathLength(RoadGraph graph, int[] path) {
+        double length = 0;
+        for (int i = 1; i < path.length; i++) {
+            double weight = Double.NaN;
+            for (int e = graph.firstEdge(path[i - 1]); e < graph.endEdge(path[i - 1]); e++) {
+                if (graph.target(e) == path[i]) {
+                    weight = graph.weight(e);
+                }
+            }
+            length += weight;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,112 @@
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class TilePackTest {
+
+    private static void writeTile(File imgDir, String name, int rgb) throws Exception {
+        BufferedImage im = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 8; x++) {
+            for (int y = 0; y < 8; y++) {
+                im.setRGB(x, y, rgb);
+            }
+        }
+        ImageIO.write(im, "png", new File(imgDir, name));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File imgDir = Files.createTempDirectory("img").toFile();
+        File packFile = File.createTempFile("tiles", ".pack");
+        writeTile(imgDir, "root.png", 0x102030);
+        writeTile(imgDir, "4.png", 0x405060);
+        writeTile(imgDir, "23.png", 0x708090);
+        writeTile(imgDir, "111.png", 0xA0B0C0);
+
+        assertEquals(4, TilePack.write(imgDir, packFile, 3));
+        TilePack pack = new TilePack(packFile);
+        assertEquals(4, pack.size());
+        assertTrue(pack.contains(2, 2, 1));
+        assertFalse(pack.contains(1, 0, 0));
+        assertNull(pack.get(1, 0, 0));
+
+        ByteBuffer bytes = pack.get(1, 1, 1);
+        byte[] expected = Files.readAllBytes(new File(imgDir, "4.png").toPath());
+        byte[] actual = new byte[bytes.remaining()];
+        bytes.get(actual);
+        assertArrayEquals(expected, actual);
+
+        QuadTree quadTree = new QuadTree(MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+        assertEquals(0x102030, pack.read(quadTree.getRoot()).getRGB(3, 3) & 0xFFFFFF);
+        assertEquals(0x708090, pack.read(quadTree.getTile(2, 2, 1)).getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(0xA0B0C0, pack.read(quadTree.getTile(3, 0, 0)).getRGB(7, 7) & 0xFFFFFF);
+
+        for (File tile : imgDir.listFiles()) {
+            tile.delete();
+        }
+        imgDir.delete();
+        packFile.deleteOnExit();
+    }
+
+    @Test
+    public void testSkipsTilesWithoutBytes() throws Exception {
+        File packFile = File.createTempFile("tiles", ".pack");
+        TreeMap<Long, TilePack.TileBytes> tiles = new TreeMap<>();
+        tiles.put(TilePack.key(0, 0, 0), () -> new byte[] {1, 2, 3});
+        tiles.put(TilePack.key(1, 0, 0), () -> null);
+        tiles.put(TilePack.key(1, 1, 0), () -> new byte[] {4});
+
+        assertEquals(2, TilePack.write(tiles, packFile));
+        TilePack pack = new TilePack(packFile);
+        assertEquals(2, pack.size());
+        assertFalse(pack.contains(1, 0, 0));
+        assertEquals(3, pack.get(0, 0, 0).remaining());
+        assertEquals(4, pack.get(1, 1, 0).get(0));
+        packFile.deleteOnExit();
+    }
+
+    @Test
+    public void testRejectsCorruptPacks() throws Exception {
+        File packFile = File.createTempFile("tiles", ".pack");
+        packFile.deleteOnExit();
+        TreeMap<Long, TilePack.TileBytes> tiles = new TreeMap<>();
+        tiles.put(TilePack.key(0, 0, 0), () -> new byte[] {1, 2, 3});
+        tiles.put(TilePack.key(1, 1, 0), () -> new byte[] {4});
+        TilePack.write(tiles, packFile);
+        long size = packFile.length();
+
+        /* Cut off the last tile's bytes. */
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            raf.setLength(size - 1);
+        }
+        assertRejected(packFile);
+
+        /* Claim more index entries than the file holds. */
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            raf.setLength(size);
+            raf.seek(8);
+            raf.writeInt(1000);
+        }
+        assertRejected(packFile);
+    }
+
+    /** Asserts that the tile pack in PACKFILE fails to open. */
+    private static void assertRejected(File packFile) {
+        try {
+            new TilePack(packFile);
+            fail("Opened a corrupt tile pack");
+        } catch (IOException e) {
+            /* Expected. */
+        }
+    }
+}